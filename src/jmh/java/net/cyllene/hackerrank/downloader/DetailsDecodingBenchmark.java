@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
+import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of challenge and submission details, based on the samples of real responses
+ * with problem statement and solution code scaled up
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetailsDecodingBenchmark {
+    private static final long SUBMISSION_ID = SyntheticData.submissionId(0);
+
+    /**
+     * Sample statement is about 90 KB, sample solution is scaled to 40 bytes per line
+     */
+    @Param({"1", "10", "100"})
+    int scale;
+
+    private ChallengesRepository dc;
+
+    @Setup
+    public void setUp() {
+        byte[] challenge = SyntheticData.challengeDetails("challenge-0", scale);
+        byte[] submission = SyntheticData.submissionDetails(SUBMISSION_ID, 100 * scale);
+
+        dc = ChallengesRepository.INSTANCE;
+        dc.setSettings(new Settings());
+        dc.setResponseCache(null);
+        dc.setGovernor(null);
+        dc.setHttpClient(new StubHttpClient(uri -> uri.getPath().contains("/challenges/") ? challenge : submission));
+    }
+
+    @Benchmark
+    public ChallengeDetails getChallengeDetails() throws IOException {
+        return dc.getChallengeDetails("challenge-0");
+    }
+
+    @Benchmark
+    public SubmissionDetails getSubmissionDetails() throws IOException {
+        return dc.getSubmissionDetails(SUBMISSION_ID);
+    }
+
+    /**
+     * What the downloader used to do with a submission before writing it
+     */
+    @Benchmark
+    public byte[] getAndEncodeSubmission() throws IOException {
+        return dc.getSubmissionDetails(SUBMISSION_ID).getCode().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * What the downloader does now: code is encoded while it is decoded, into a stream discarding the bytes
+     */
+    @Benchmark
+    public SubmissionDetails streamSubmission(Blackhole blackhole) throws IOException {
+        return dc.getSubmissionDetails(SUBMISSION_ID, (submission, code) -> {
+            Writer writer = new OutputStreamWriter(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    blackhole.consume(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    blackhole.consume(b);
+                }
+            }, StandardCharsets.UTF_8);
+            code.copyTo(writer);
+            writer.flush();
+        });
+    }
+}
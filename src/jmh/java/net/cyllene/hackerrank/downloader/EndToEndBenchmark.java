@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Runs the whole downloader against {@link FakeHackerrankServer} and reports throughput,
+ * latency of requests and peak heap usage.
+ * <p>
+ * Arguments are passed to the downloader as is, e.g. {@code --threads 16}. Output
+ * directory and cache are always temporary. The server is configured with system properties named
+ * after fields of {@link FakeHackerrankServer.Config}, prefixed with "fake.", e.g. {@code -Dfake.latencyMillis=100}.
+ * With {@code -D}{@value #ACCOUNTS_PROPERTY}{@code =N} the same submissions are downloaded for N accounts
+ * in a single batch run.
+ * <p>
+ * Latency is measured by the downloader itself, as durations of its HttpRequest flight recorder events,
+ * so it includes waiting for a pooled connection but not waiting for the rate limiter.
+ */
+public final class EndToEndBenchmark {
+    private static final String HTTP_REQUEST_EVENT = "net.cyllene.hackerrank.HttpRequest";
+    private static final String ACCOUNTS_PROPERTY = "bench.accounts";
+
+    private EndToEndBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        FakeHackerrankServer.Config config = configFromSystemProperties();
+        Path home = Files.createTempDirectory("hackerrank-end-to-end");
+        // Key file and cache are looked up in user.home, the downloader must not see the real ones
+        Files.write(home.resolve(Settings.KEY_FILENAME), "fake-session".getBytes(StandardCharsets.US_ASCII));
+        System.setProperty("user.home", home.toString());
+
+        try (FakeHackerrankServer server = new FakeHackerrankServer(config)) {
+            Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(args);
+            settings.setBaseUrl(server.getBaseUrl());
+            settings.setOutputDir(home.resolve("hackerrank_challenges"));
+            int accounts = Integer.getInteger(ACCOUNTS_PROPERTY, 1);
+            if (accounts > 1) {
+                List<String> batch = IntStream.range(0, accounts)
+                        .mapToObj(i -> "account" + i + " fake-session-" + i + " " + home.resolve("account" + i))
+                        .collect(Collectors.toList());
+                settings.setBatchFile(Files.write(home.resolve("batch.txt"), batch));
+            }
+
+            System.out.println("Downloading " + config.getSubmissions() + " submissions for " + accounts
+                    + " accounts from " + server.getBaseUrl() + " with " + config);
+
+            Recording recording = new Recording();
+            recording.enable(HTTP_REQUEST_EVENT).withoutThreshold();
+            recording.start();
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .collect(Collectors.toList());
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+            long startedAt = System.nanoTime();
+            try {
+                HackerrankDownloader.download(settings);
+            } catch (ExitWithErrorException e) {
+                System.err.println("Download failed: " + e.getLocalizedMessage());
+            }
+            long elapsed = System.nanoTime() - startedAt;
+
+            long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            recording.stop();
+            Path recordingFile = home.resolve("requests.jfr");
+            recording.dump(recordingFile);
+            recording.close();
+
+            report(RecordingFile.readAllEvents(recordingFile), elapsed, peakHeap);
+            System.out.println(server);
+        } finally {
+            delete(home);
+        }
+    }
+
+    private static void report(List<RecordedEvent> events, long elapsedNanos, long peakHeap) {
+        long[] latencies = events.stream()
+                .filter(event -> event.getEventType().getName().equals(HTTP_REQUEST_EVENT))
+                .mapToLong(event -> event.getDuration().toNanos())
+                .sorted()
+                .toArray();
+        long submissions = events.stream()
+                .filter(event -> event.getEventType().getName().equals(HTTP_REQUEST_EVENT))
+                .filter(event -> "submission".equals(event.getString("type")) && event.getInt("status") == 200)
+                .count();
+        double seconds = elapsedNanos / 1e9;
+
+        System.out.println(String.format("Submissions: %d in %.2f s, %.1f per second", submissions, seconds,
+                submissions / seconds));
+        System.out.println(String.format("Requests: %d, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                latencies.length, percentile(latencies, 50), percentile(latencies, 99), percentile(latencies, 100)));
+        // Sum of peaks of every pool, the peaks of different pools need not coincide
+        System.out.println(String.format("Peak heap: %d MB", peakHeap / 1024 / 1024));
+    }
+
+    /**
+     * @return nearest-rank percentile in milliseconds, 0 if there are no values
+     */
+    private static double percentile(long[] sortedNanos, int percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedNanos.length);
+        return sortedNanos[Math.max(0, rank - 1)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static FakeHackerrankServer.Config configFromSystemProperties() {
+        FakeHackerrankServer.Config config = new FakeHackerrankServer.Config();
+        config.setSubmissions(Integer.getInteger("fake.submissions", config.getSubmissions()));
+        config.setHotChallengeSubmissions(Integer.getInteger("fake.hotChallengeSubmissions",
+                config.getHotChallengeSubmissions()));
+        config.setDescriptionScale(Integer.getInteger("fake.descriptionScale", config.getDescriptionScale()));
+        config.setCodeLines(Integer.getInteger("fake.codeLines", config.getCodeLines()));
+        config.setLatencyMillis(Long.getLong("fake.latencyMillis", config.getLatencyMillis()));
+        config.setJitterMillis(Long.getLong("fake.jitterMillis", config.getJitterMillis()));
+        config.setErrorRate(Double.parseDouble(
+                System.getProperty("fake.errorRate", Double.toString(config.getErrorRate()))));
+        config.setThrottleRate(Double.parseDouble(
+                System.getProperty("fake.throttleRate", Double.toString(config.getThrottleRate()))));
+        config.setRetryAfterSeconds(Integer.getInteger("fake.retryAfterSeconds", config.getRetryAfterSeconds()));
+        config.setHandlerThreads(Integer.getInteger("fake.handlerThreads", config.getHandlerThreads()));
+        return config;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the REST endpoints the downloader uses, serving {@link SyntheticData}.
+ * <p>
+ * Every response is delayed by the configured latency plus uniformly distributed jitter. A share
+ * of requests may be answered with 500 or with 429 and Retry-After, to see how the downloader
+ * copes with a struggling server.
+ */
+class FakeHackerrankServer implements Closeable {
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    /**
+     * Arrival of the first request since the last {@link #takeFirstRequestAt()}, nanos, 0 if there was none
+     */
+    private final AtomicLong firstRequestAt = new AtomicLong();
+
+    /**
+     * Starts the server on a free port of the loopback interface
+     *
+     * @throws IOException server could not be started
+     */
+    FakeHackerrankServer(Config config) throws IOException {
+        this.config = config;
+        this.handlers = Executors.newFixedThreadPool(config.getHandlerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "fake-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/rest/contests/master/", this::handle);
+        server.setExecutor(handlers);
+        server.start();
+    }
+
+    /**
+     * @return to be used instead of {@link Settings#BASE_URL}
+     */
+    String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the first request since the previous call arrived, 0 if there was none
+     */
+    long takeFirstRequestAt() {
+        return firstRequestAt.getAndSet(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Server: %d requests, %d answered with 500, %d with 429, %d KB sent",
+                requests.sum(), errors.sum(), throttled.sum(), bytes.sum() / 1024);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        firstRequestAt.compareAndSet(0, System.nanoTime());
+        try {
+            requests.increment();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long delay = config.getLatencyMillis()
+                    + (config.getJitterMillis() > 0 ? random.nextLong(config.getJitterMillis() + 1) : 0);
+            TimeUnit.MILLISECONDS.sleep(delay);
+
+            if (random.nextDouble() < config.getThrottleRate()) {
+                throttled.increment();
+                exchange.getResponseHeaders().set("Retry-After", Integer.toString(config.getRetryAfterSeconds()));
+                exchange.sendResponseHeaders(RequestGovernor.SC_TOO_MANY_REQUESTS, -1);
+                return;
+            }
+            if (random.nextDouble() < config.getErrorRate()) {
+                errors.increment();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            byte[] body = SyntheticData.respond(exchange.getRequestURI(), config.getSubmissions(),
+                    config.getHotChallengeSubmissions(), config.getDescriptionScale(), config.getCodeLines());
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            bytes.add(body.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Size of synthetic history and behaviour of the server
+     */
+    @Data
+    static class Config {
+        private int submissions = 10_000;
+        /**
+         * Number of the newest submissions made to a single challenge, 0 for challenges of equal size
+         */
+        private int hotChallengeSubmissions = 0;
+        /**
+         * See {@link SyntheticData#challengeDetails}
+         */
+        private int descriptionScale = 1;
+        /**
+         * See {@link SyntheticData#submissionDetails}
+         */
+        private int codeLines = 50;
+        private long latencyMillis = 50;
+        private long jitterMillis = 20;
+        /**
+         * Share of requests answered with 500, from 0 to 1
+         */
+        private double errorRate = 0;
+        /**
+         * Share of requests answered with 429, from 0 to 1
+         */
+        private double throttleRate = 0;
+        private int retryAfterSeconds = 1;
+        private int handlerThreads = 64;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures startup of the complete jar in separate JVMs: time from launching the process to the first
+ * request reaching {@link FakeHackerrankServer}, and time to exit.
+ * <p>
+ * Arguments are the jar and, optionally, a class data sharing archive for it. The history is downloaded
+ * once, then every measured run is a {@code --sync} finding nothing new, a single request. Runs are made
+ * without the archive and, if it exists, with it. The number of runs is set with {@code -Dstartup.runs}.
+ * <p>
+ * With {@code -Dstartup.train=true} nothing is measured: the initial download records the archive instead.
+ * Recording needs JDK 13 or newer.
+ */
+public final class StartupBenchmark {
+    private static final int SUBMISSIONS = 50;
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path jar = Paths.get(args[0]);
+        Path archive = args.length > 1 ? Paths.get(args[1]) : null;
+        boolean train = Boolean.getBoolean("startup.train");
+        int runs = Integer.getInteger("startup.runs", 10);
+
+        Path home = Files.createTempDirectory("hackerrank-startup");
+        // Key file and cache are looked up in user.home, the downloader must not see the real ones
+        Files.write(home.resolve(Settings.KEY_FILENAME), "fake-session".getBytes(StandardCharsets.US_ASCII));
+
+        FakeHackerrankServer.Config config = new FakeHackerrankServer.Config();
+        config.setSubmissions(SUBMISSIONS);
+        config.setLatencyMillis(5);
+        config.setJitterMillis(0);
+        try (FakeHackerrankServer server = new FakeHackerrankServer(config)) {
+            List<String> jvmOptions = train && archive != null
+                    ? Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive)
+                    : Collections.emptyList();
+            launch(jar, jvmOptions, home, server);
+            if (train) {
+                System.out.println("Class data sharing archive: " + archive);
+                return;
+            }
+
+            measure("Default", jar, Collections.emptyList(), home, server, runs);
+            if (archive != null && Files.exists(archive)) {
+                measure("Class data sharing", jar,
+                        Arrays.asList("-XX:SharedArchiveFile=" + archive, "-Xshare:on"), home, server, runs);
+            }
+        } finally {
+            delete(home);
+        }
+    }
+
+    private static void measure(String name, Path jar, List<String> jvmOptions, Path home,
+                                FakeHackerrankServer server, int runs) throws IOException, InterruptedException {
+        long[] firstRequest = new long[runs];
+        long[] exit = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long[] times = launch(jar, jvmOptions, home, server, "--sync");
+            firstRequest[i] = times[0];
+            exit[i] = times[1];
+        }
+        System.out.println(String.format("%s: first request after %d ms, exit after %d ms (medians of %d runs)",
+                name, median(firstRequest), median(exit), runs));
+    }
+
+    /**
+     * Runs the downloader into the output directory in home and waits for it to exit
+     *
+     * @return milliseconds from launch to the first request and to exit
+     */
+    private static long[] launch(Path jar, List<String> jvmOptions, Path home, FakeHackerrankServer server,
+                                 String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-Duser.home=" + home);
+        command.add("-D" + Settings.BASE_URL_PROPERTY + "=" + server.getBaseUrl());
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("-d");
+        command.add(home.resolve("hackerrank_challenges").toString());
+        command.addAll(Arrays.asList(args));
+
+        Path log = home.resolve("downloader.log");
+        server.takeFirstRequestAt();
+        long startedAt = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+        int status = process.waitFor();
+        long exitedAt = System.nanoTime();
+        if (status != 0) {
+            throw new IllegalStateException("Downloader failed:" + System.lineSeparator()
+                    + new String(Files.readAllBytes(log), StandardCharsets.UTF_8));
+        }
+
+        long firstRequestAt = server.takeFirstRequestAt();
+        return new long[]{
+                firstRequestAt == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstRequestAt - startedAt),
+                TimeUnit.NANOSECONDS.toMillis(exitedAt - startedAt)};
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Path of a decoded submission to disk: conversion of line separators, encoding and writing
+ * into a temporary output directory. A thousand files are rewritten in turn.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmissionWriteBenchmark {
+    private static final int FILES = 1000;
+
+    @Param({"10", "100", "1000"})
+    int codeLines;
+
+    private String code;
+    private SubmissionDetails submission;
+    private Path outputDir;
+    private OutputSink sink;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        code = SyntheticData.code(codeLines);
+        submission = new SubmissionDetails();
+        submission.setLanguage("java8");
+        outputDir = Files.createTempDirectory("hackerrank-benchmark");
+        sink = new DirectorySink(outputDir, null, false, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+        try (Stream<Path> files = Files.walk(outputDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public SubmissionDetails convertLineSeparators() {
+        submission.setCode(code);
+        return ChallengesRepository.withPlatformLineSeparators(submission);
+    }
+
+    @Benchmark
+    public void writeSubmission() throws IOException {
+        submission.setCode(code);
+        submission.setId(next++ % FILES);
+        ChallengesRepository.withPlatformLineSeparators(submission);
+        sink.write(Paths.get("challenge-0", "accepted_solutions", submission.getId() + "." + submission.getLanguage()),
+                submission.getCode().getBytes(StandardCharsets.UTF_8));
+    }
+}
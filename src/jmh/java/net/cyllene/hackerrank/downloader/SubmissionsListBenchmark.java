@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing of the whole history: decoding of pages and grouping of submissions by challenge.
+ * Pages are generated once, the client only hands them over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmissionsListBenchmark {
+    @Param({"1000", "10000", "65000"})
+    int submissions;
+
+    private ChallengesRepository dc;
+
+    @Setup
+    public void setUp() {
+        Map<Integer, byte[]> pages = new HashMap<>();
+        for (int offset = 0; offset < submissions; offset += Settings.PAGE_SIZE) {
+            pages.put(offset, SyntheticData.submissionsPage(offset, Settings.PAGE_SIZE, submissions));
+        }
+
+        dc = ChallengesRepository.INSTANCE;
+        dc.setSettings(new Settings());
+        dc.setResponseCache(null);
+        dc.setGovernor(null);
+        dc.setHttpClient(new StubHttpClient(uri -> pages.get(SyntheticData.queryParameter(uri, "offset"))));
+    }
+
+    @Benchmark
+    public SubmissionIndex getSubmissionsList() throws IOException {
+        return dc.getSubmissionsList(0, submissions);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates server responses of any size, shaped like the samples of real ones in test resources.
+ * <p>
+ * Submissions are numbered from 0, the newest first, as the server lists them. Every tenth
+ * submission starts a new challenge and every fifth one is not accepted. Optionally the newest
+ * submissions all belong to a single hot challenge, to model a history of skewed challenge sizes.
+ */
+final class SyntheticData {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] LANGUAGES = {"java8", "python3", "cpp14", "go", "kotlin"};
+    private static final long NEWEST_ID = 100_000_000L;
+    private static final long NEWEST_CREATED_AT = 1_600_000_000L;
+    private static final int SUBMISSIONS_PER_CHALLENGE = 10;
+    private static final int HOT_CHALLENGE_ID = 1_000_000;
+    private static final String SUBMISSIONS_PATH = "/rest/contests/master/submissions/";
+    private static final String CHALLENGES_PATH = "/rest/contests/master/challenges/";
+
+    private SyntheticData() {
+    }
+
+    /**
+     * Answers any request the downloader makes
+     *
+     * @param uri              requested URI
+     * @param total            number of submissions in the history
+     * @param hot              see {@link #challengeSlug(int, int)}
+     * @param descriptionScale see {@link #challengeDetails}
+     * @param codeLines        see {@link #submissionDetails}
+     * @return body of a successful response, null if there is no such document
+     */
+    static byte[] respond(URI uri, int total, int hot, int descriptionScale, int codeLines) {
+        String path = uri.getPath();
+        if (path.startsWith(CHALLENGES_PATH)) {
+            return challengeDetails(path.substring(CHALLENGES_PATH.length()), descriptionScale);
+        }
+        if (!path.startsWith(SUBMISSIONS_PATH)) {
+            return null;
+        }
+        if (path.length() == SUBMISSIONS_PATH.length()) {
+            return submissionsPage(queryParameter(uri, "offset"), queryParameter(uri, "limit"), total, hot);
+        }
+        long id = Long.parseLong(path.substring(SUBMISSIONS_PATH.length()));
+        int index = indexOf(id);
+        return index >= 0 && index < total ? submissionDetails(id, hot, codeLines) : null;
+    }
+
+    static long submissionId(int index) {
+        return NEWEST_ID - index;
+    }
+
+    static int indexOf(long submissionId) {
+        return (int) (NEWEST_ID - submissionId);
+    }
+
+    /**
+     * @param hot number of the newest submissions belonging to the hot challenge
+     */
+    static String challengeSlug(int index, int hot) {
+        return index < hot ? "challenge-hot" : "challenge-" + challengeId(index, hot);
+    }
+
+    private static int challengeId(int index, int hot) {
+        return index < hot ? HOT_CHALLENGE_ID : index / SUBMISSIONS_PER_CHALLENGE;
+    }
+
+    static String language(int index) {
+        return LANGUAGES[index % LANGUAGES.length];
+    }
+
+    /**
+     * @return a page of /rest/contests/master/submissions/ out of the given total
+     */
+    static byte[] submissionsPage(int offset, int limit, int total) {
+        return submissionsPage(offset, limit, total, 0);
+    }
+
+    /**
+     * @param hot see {@link #challengeSlug(int, int)}
+     * @return a page of /rest/contests/master/submissions/ out of the given total
+     */
+    static byte[] submissionsPage(int offset, int limit, int total, int hot) {
+        StringBuilder json = new StringBuilder(limit * 400 + 32).append("{\"models\":[");
+        for (int index = offset; index < Math.min(offset + limit, total); index++) {
+            if (index > offset) {
+                json.append(',');
+            }
+            boolean accepted = index % 5 != 4;
+            String slug = challengeSlug(index, hot);
+            json.append("{\"id\":").append(submissionId(index))
+                    .append(",\"challenge_id\":").append(challengeId(index, hot))
+                    .append(",\"contest_id\":1,\"hacker_id\":1022707")
+                    .append(",\"status\":\"").append(accepted ? "Accepted" : "Wrong Answer")
+                    .append("\",\"kind\":\"code\",\"created_at\":").append(NEWEST_CREATED_AT - index * 60L)
+                    .append(",\"language\":\"").append(language(index))
+                    .append("\",\"hacker_username\":null,\"time_ago\":\"about 1 year\",\"in_contest_bounds\":true")
+                    .append(",\"status_code\":").append(accepted ? Settings.STATUS_CODE_ACCEPTED : 1)
+                    .append(",\"score\":\"").append(accepted ? "10.0" : "9.74")
+                    .append("\",\"is_preliminary_score\":null,\"challenge\":{\"name\":\"Challenge ")
+                    .append(challengeId(index, hot)).append("\",\"slug\":\"").append(slug)
+                    .append("\"},\"inserttime\":").append(NEWEST_CREATED_AT - index * 60L + 1).append('}');
+        }
+        return json.append("],\"total\":").append(total).append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param scale how many times the problem statement of the sample is repeated
+     * @return /rest/contests/master/challenges/{slug}
+     */
+    static byte[] challengeDetails(String slug, int scale) {
+        ObjectNode document = sample("/challenge_details_sample.json");
+        ObjectNode model = (ObjectNode) document.get("model");
+        model.put("slug", slug);
+        model.put("body_html", repeat(model.get("body_html").asText(), scale));
+        return toBytes(document);
+    }
+
+    /**
+     * @param codeLines number of lines of the solution
+     * @return /rest/contests/master/submissions/{id}
+     */
+    static byte[] submissionDetails(long id, int codeLines) {
+        return submissionDetails(id, 0, codeLines);
+    }
+
+    /**
+     * @param hot       see {@link #challengeSlug(int, int)}
+     * @param codeLines number of lines of the solution
+     * @return /rest/contests/master/submissions/{id}
+     */
+    static byte[] submissionDetails(long id, int hot, int codeLines) {
+        int index = indexOf(id);
+        ObjectNode document = sample("/submission_details_sample.json");
+        ObjectNode model = (ObjectNode) document.get("model");
+        model.put("id", id);
+        model.put("language", language(index));
+        model.put("challenge_slug", challengeSlug(index, hot));
+        model.put("code", code(codeLines));
+        return toBytes(document);
+    }
+
+    /**
+     * @return source code of the given number of lines, separated by \n as the server does
+     */
+    static String code(int lines) {
+        StringBuilder code = new StringBuilder(lines * 40);
+        for (int line = 0; line < lines; line++) {
+            code.append("    long value").append(line).append(" = compute(").append(line).append(");\n");
+        }
+        return code.toString();
+    }
+
+    static int queryParameter(URI uri, String name) {
+        for (String parameter : uri.getQuery().split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return Integer.parseInt(parameter.substring(name.length() + 1));
+            }
+        }
+        throw new IllegalArgumentException("No " + name + " in " + uri);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder result = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            result.append(text);
+        }
+        return result.toString();
+    }
+
+    private static ObjectNode sample(String resource) {
+        try (InputStream in = SyntheticData.class.getResourceAsStream(resource)) {
+            return (ObjectNode) MAPPER.readTree(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] toBytes(ObjectNode document) {
+        try {
+            return MAPPER.writeValueAsBytes(document);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A single entry of a batch file.
+ * <p>
+ * Batch file has an account per line: a name, a value of {@value Settings#COOKIE_NAME} cookie and an output
+ * directory, separated by whitespace. The directory takes the rest of the line, so it may contain spaces.
+ * Empty lines and lines starting with # are ignored.
+ */
+@Value
+class Account {
+    String name;
+    String secretKey;
+    Path outputDir;
+
+    /**
+     * @param file batch file
+     * @return accounts in order of the file
+     * @throws IOException file could not be read or is malformed
+     */
+    static List<Account> load(Path file) throws IOException {
+        List<Account> accounts = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        Set<Path> directories = new HashSet<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+", 3);
+            if (fields.length < 3) {
+                throw new IOException(file + ":" + (i + 1) + ": expected account name, session cookie"
+                        + " and output directory");
+            }
+
+            Path outputDir;
+            try {
+                outputDir = Paths.get(fields[2]).toAbsolutePath().normalize();
+            } catch (InvalidPathException e) {
+                throw new IOException(file + ":" + (i + 1) + ": invalid output directory " + fields[2]);
+            }
+            if (!names.add(fields[0])) {
+                throw new IOException(file + ":" + (i + 1) + ": account " + fields[0] + " is listed twice");
+            }
+            if (!directories.add(outputDir)) {
+                throw new IOException(file + ":" + (i + 1) + ": " + outputDir + " is used by another account");
+            }
+            accounts.add(new Account(fields[0], fields[1], outputDir));
+        }
+        if (accounts.isEmpty()) {
+            throw new IOException(file + ": no accounts listed");
+        }
+        return accounts;
+    }
+
+    /**
+     * Keeps the session out of logs
+     */
+    @Override
+    public String toString() {
+        return name + " -> " + outputDir;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.Setter;
+import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
+import net.cyllene.hackerrank.downloader.dto.CodeTarget;
+import net.cyllene.hackerrank.downloader.dto.JsonReaders;
+import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
+import net.cyllene.hackerrank.downloader.events.Events;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking counterpart of {@link ChallengesRepository} for details of challenges and submissions.
+ * <p>
+ * Requests are multiplexed by a couple of I/O threads of the {@link CloseableHttpAsyncClient}, so
+ * the number of requests in flight is bounded by the connection pool and {@link RequestGovernor}
+ * rather than by the number of threads. Responses are decoded by the same readers as in the blocking
+ * repository on a pool of decoder threads, never on I/O threads. Continuations attached to returned
+ * futures run on decoder threads as well. Challenge descriptions go through the same persistent
+ * {@link ResponseCache}, which is read and written on decoder threads too.
+ */
+class AsyncChallengesRepository implements Closeable {
+    private final CloseableHttpAsyncClient httpClient;
+    private final Settings settings;
+    private final RequestGovernor governor;
+    private final ExecutorService decoder;
+    /**
+     * Session of the account when the client is shared, null when the client has its own
+     */
+    private final CookieStore cookieStore;
+    /**
+     * Optional, challenge descriptions are always requested from server if not set
+     */
+    @Setter
+    private volatile ResponseCache responseCache;
+    /**
+     * Optional, concurrent requests for the same challenge are not coalesced if not set
+     */
+    @Setter
+    private volatile SingleFlightCache<String, ChallengeDetails> challengeDetailsCache;
+    /**
+     * Delays retries of throttled requests and starts requests granted a slot by the governor,
+     * neither it nor I/O threads ever wait
+     */
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "retry-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param httpClient started client, closed together with the repository
+     * @param settings   program state, number of threads defines size of decoder pool
+     * @param governor   limits rate and concurrency, may be null
+     */
+    AsyncChallengesRepository(CloseableHttpAsyncClient httpClient, Settings settings, RequestGovernor governor) {
+        this(httpClient, settings, governor, Executors.newFixedThreadPool(settings.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "decoder");
+            thread.setDaemon(true);
+            return thread;
+        }), null);
+    }
+
+    /**
+     * Repository of one account of a batch, the client is shared by all accounts and stays open
+     *
+     * @param httpClient  started client without a session of its own
+     * @param settings    program state
+     * @param governor    limits rate and concurrency, may be null
+     * @param decoder     decodes responses, shut down together with the repository
+     * @param cookieStore session of the account
+     */
+    AsyncChallengesRepository(CloseableHttpAsyncClient httpClient, Settings settings, RequestGovernor governor,
+                              ExecutorService decoder, CookieStore cookieStore) {
+        this.httpClient = httpClient;
+        this.settings = settings;
+        this.governor = governor;
+        this.decoder = decoder;
+        this.cookieStore = cookieStore;
+    }
+
+    /**
+     * Request and unmarshal challenge details from server by slug
+     *
+     * @param slug Challenge id (slug), which is passed to server in URL
+     * @return future {@link ChallengeDetails} object created from JSON returned by server
+     */
+    CompletableFuture<ChallengeDetails> getChallengeDetails(String slug) {
+        SingleFlightCache<String, ChallengeDetails> memo = challengeDetailsCache;
+        if (memo == null) {
+            return getCachedJsonFrom("/rest/contests/master/challenges/" + slug, JsonReaders.CHALLENGE_DETAILS);
+        }
+        return memo.getAsync(slug, () -> getCachedJsonFrom("/rest/contests/master/challenges/" + slug,
+                JsonReaders.CHALLENGE_DETAILS));
+    }
+
+    /**
+     * Request and unmarshal submission details from server by id
+     *
+     * @param id Submission id, which is passed to server in URL
+     * @return future {@link SubmissionDetails} object created from JSON returned by server
+     */
+    CompletableFuture<SubmissionDetails> getSubmissionDetails(long id) {
+        return this.<SubmissionDetails>getJsonFrom("/rest/contests/master/submissions/" + id, JsonReaders.SUBMISSION_DETAILS)
+                .thenApply(ChallengesRepository::withPlatformLineSeparators);
+    }
+
+    /**
+     * Same as {@link #getSubmissionDetails(long)}, but the code is written into the target while the response
+     * is decoded, see {@link ChallengesRepository#getSubmissionDetails(long, CodeTarget)}
+     */
+    CompletableFuture<SubmissionDetails> getSubmissionDetails(long id, CodeTarget target) {
+        return this.<SubmissionDetails>getJsonFrom("/rest/contests/master/submissions/" + id,
+                JsonReaders.submissionDetails(ChallengesRepository.withPlatformLineSeparators(target)))
+                .thenApply(ChallengesRepository::withPlatformLineSeparators);
+    }
+
+    @Override
+    public void close() throws IOException {
+        retryScheduler.shutdownNow();
+        decoder.shutdownNow();
+        if (cookieStore == null) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Same contract as in the blocking repository: failure to get a successful response after all retries
+     * or to decode it completes the future with {@link UncheckedIOException}, the run goes on
+     */
+    private <T> CompletableFuture<T> getJsonFrom(String url, ObjectReader reader) {
+        CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+        send(settings.getBaseUrl() + url, new Header[0], 0, response);
+        return response.thenApplyAsync(r -> decode(url, r, reader), decoder);
+    }
+
+    /**
+     * Same as {@link #getJsonFrom(String, ObjectReader)}, but goes through the persistent response cache
+     * if one is configured, as {@link ChallengesRepository} does: fresh entries are used without a request,
+     * stale ones are revalidated.
+     */
+    private <T> CompletableFuture<T> getCachedJsonFrom(String url, ObjectReader reader) {
+        ResponseCache cache = responseCache;
+        if (cache == null) {
+            return getJsonFrom(url, reader);
+        }
+
+        return CompletableFuture.supplyAsync(() -> cache.lookup(url), decoder).thenCompose(entry -> {
+            if (entry != null && cache.isFresh(entry)) {
+                return decodeCached(url, cache.hit(entry), reader);
+            }
+            Header[] validators = entry == null ? new Header[0] : cache.validatorsOf(entry);
+            CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+            send(settings.getBaseUrl() + url, validators, 0, response);
+            return response
+                    .thenApplyAsync(r -> store(cache, url, entry, checked(r, validators.length > 0)), decoder)
+                    .thenCompose(body -> decodeCached(url, body, reader));
+        });
+    }
+
+    /**
+     * @return body of the entry, the stored response or the revalidated entry
+     */
+    private static Path store(ResponseCache cache, String url, ResponseCache.Entry entry, HttpResponse response) {
+        try {
+            return response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                    ? cache.revalidated(entry)
+                    : cache.store(url, response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    private <T> CompletableFuture<T> decodeCached(String url, Path body, ObjectReader reader) {
+        try (InputStream content = Files.newInputStream(body)) {
+            return CompletableFuture.completedFuture(ChallengesRepository.decode(url, reader, content, true));
+        } catch (NoSuchFileException e) {
+            // Evicted by another thread in the meantime
+            return getJsonFrom(url, reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sends the request once the governor grants a slot, without waiting for it in any thread
+     *
+     * @param validators conditional request headers
+     */
+    private void send(String url, Header[] validators, int attempt, CompletableFuture<HttpResponse> result) {
+        if (governor == null) {
+            execute(url, validators, attempt, result);
+            return;
+        }
+        governor.acquireAsync(retryScheduler).whenComplete((slot, e) -> {
+            if (e != null) {
+                result.completeExceptionally(failure(e));
+            } else {
+                execute(url, validators, attempt, result);
+            }
+        });
+    }
+
+    private void execute(String url, Header[] validators, int attempt, CompletableFuture<HttpResponse> result) {
+        if (settings.isVerbose()) {
+            System.out.println("Getting: " + url);
+        }
+        long startedAt = System.nanoTime();
+        Object event = Events.beginRequest();
+        FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                Events.commitRequest(event, ChallengesRepository.requestType(url), url,
+                        response.getStatusLine().getStatusCode(),
+                        response.getEntity() == null ? -1 : response.getEntity().getContentLength());
+                long retryDelay = governor == null ? -1
+                        : governor.onResponse(response, System.nanoTime() - startedAt, attempt);
+                if (retryDelay < 0) {
+                    result.complete(response);
+                } else {
+                    retryScheduler.schedule(() -> send(url, validators, attempt + 1, result), retryDelay,
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                Events.commitRequest(event, ChallengesRepository.requestType(url), url, 0, -1);
+                long retryDelay = governor == null ? -1 : governor.onFailure(e, attempt);
+                if (retryDelay < 0) {
+                    result.completeExceptionally(failure(e));
+                } else {
+                    retryScheduler.schedule(() -> send(url, validators, attempt + 1, result), retryDelay,
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            public void cancelled() {
+                Events.commitRequest(event, ChallengesRepository.requestType(url), url, 0, -1);
+                if (governor != null) {
+                    governor.onFailure();
+                }
+                result.cancel(false);
+            }
+        };
+        HttpGet request = new HttpGet(url);
+        request.setHeaders(validators);
+        if (cookieStore == null) {
+            httpClient.execute(request, callback);
+        } else {
+            httpClient.execute(request, HttpClientConfiguration.context(cookieStore), callback);
+        }
+    }
+
+    private <T> T decode(String url, HttpResponse response, ObjectReader reader) {
+        HttpEntity entity = checked(response, false).getEntity();
+        // Body is already buffered by the default response consumer
+        try (InputStream content = entity.getContent()) {
+            return ChallengesRepository.decode(url, reader, content, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param conditional 304 response is accepted
+     * @return successful response
+     * @throws UncheckedIOException response is not successful
+     */
+    private HttpResponse checked(HttpResponse response, boolean conditional) {
+        StatusLine statusLine = response.getStatusLine();
+        if (statusLine.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && conditional) {
+            return response;
+        }
+        if (statusLine.getStatusCode() >= 300) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw failure(new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase()));
+        }
+        if (response.getEntity() == null) {
+            throw failure(new ClientProtocolException("Response contains no content"));
+        }
+        return response;
+    }
+
+    private UncheckedIOException failure(Throwable e) {
+        return new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e));
+    }
+}
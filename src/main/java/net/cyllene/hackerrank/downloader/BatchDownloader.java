@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
+import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static net.cyllene.hackerrank.downloader.HttpClientConfiguration.httpAsyncClient;
+import static net.cyllene.hackerrank.downloader.HttpClientConfiguration.httpClient;
+
+/**
+ * Downloads several accounts listed in a batch file in a single process.
+ * <p>
+ * Accounts share the connection pool, {@link RequestGovernor}, caches of challenge descriptions and worker
+ * threads of a {@link FairScheduler}, each account has its own session cookie, output directory and sync state.
+ * Every account is driven by a thread of its own, which lists its submissions and waits for its downloads,
+ * a failure of one account does not stop the others.
+ */
+class BatchDownloader {
+    private BatchDownloader() {
+    }
+
+    /**
+     * @param settings program state shared by all accounts, with a batch file
+     * @throws ExitWithErrorException batch file is malformed or some account failed
+     */
+    static void download(Settings settings) {
+        List<Account> accounts;
+        try {
+            accounts = Account.load(settings.getBatchFile());
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to read batch file: " + e.getMessage());
+        }
+
+        Closeable recording = HackerrankDownloader.startRecording(settings);
+        HackerrankDownloader.warmUpJsonReaders();
+
+        HttpClient httpClient = httpClient(settings);
+        ResponseCache cache = HackerrankDownloader.responseCache(settings);
+        // Accounts often solved the same challenges, a description is requested once for all of them
+        SingleFlightCache<String, ChallengeDetails> challengeDetailsCache =
+                new SingleFlightCache<>(Settings.DETAILS_CACHE_ENTRIES);
+        RequestGovernor governor = new RequestGovernor(settings.getRateLimit(), settings.getMaxConnections(),
+                Settings.THROTTLED_REQUEST_RETRIES, settings.getRetries(), settings.isVerbose());
+
+        Map<Account, Future<Long>> results = new LinkedHashMap<>();
+        int failed;
+        ExecutorService drivers = Executors.newFixedThreadPool(accounts.size(), runnable -> {
+            Thread thread = new Thread(runnable, "batch-account");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Virtual threads are not scarce, accounts do not take turns for them
+        try (FairScheduler scheduler = settings.getEngine() == Settings.Engine.VIRTUAL
+                ? null : new FairScheduler(settings.getThreads());
+             CloseableHttpAsyncClient httpAsyncClient = settings.getEngine() == Settings.Engine.ASYNC
+                     ? httpAsyncClient(settings) : null) {
+            for (Account account : accounts) {
+                results.put(account, drivers.submit(() -> {
+                    long startedAt = System.nanoTime();
+                    downloadAccount(account, settings.withOutputDir(account.getOutputDir()).forShard(), httpClient,
+                            httpAsyncClient, cache, challengeDetailsCache, governor,
+                            scheduler == null ? null : scheduler.newLane(account.getName()));
+                    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+                }));
+            }
+            failed = report(results);
+        } catch (IOException e) {
+            throw new ExitWithErrorException(e);
+        } finally {
+            drivers.shutdownNow();
+        }
+
+        if (settings.isVerbose()) {
+            System.out.println(governor);
+            System.out.println(challengeDetailsCache);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+        }
+        HackerrankDownloader.stopRecording(recording, settings);
+
+        if (failed > 0) {
+            throw new ExitWithErrorException(failed + " of " + accounts.size() + " accounts failed");
+        }
+    }
+
+    private static void downloadAccount(Account account, Settings settings, HttpClient httpClient,
+                                        CloseableHttpAsyncClient httpAsyncClient, ResponseCache cache,
+                                        SingleFlightCache<String, ChallengeDetails> challengeDetailsCache,
+                                        RequestGovernor governor, ExecutorService lane) throws IOException {
+        CookieStore cookieStore = HttpClientConfiguration.cookieStore(account.getSecretKey());
+
+        ChallengesRepository dc = new ChallengesRepository();
+        dc.setSettings(settings);
+        dc.setHttpClient(httpClient);
+        dc.setCookieStore(cookieStore);
+        dc.setResponseCache(cache);
+        dc.setChallengeDetailsCache(challengeDetailsCache);
+        dc.setGovernor(governor);
+
+        HackerrankDownloader downloader = new HackerrankDownloader(settings, dc);
+        // Without a lane the downloader starts threads of its own
+        downloader.setWorkers(lane);
+        if (httpAsyncClient == null) {
+            downloader.run();
+            return;
+        }
+        // Responses are decoded by workers of the account as well
+        try (AsyncChallengesRepository asyncDc = new AsyncChallengesRepository(httpAsyncClient, settings, governor,
+                lane, cookieStore)) {
+            asyncDc.setResponseCache(cache);
+            asyncDc.setChallengeDetailsCache(challengeDetailsCache);
+            downloader.setAsyncRepository(asyncDc);
+            downloader.run();
+        }
+    }
+
+    /**
+     * Waits for every account and prints a line per account
+     *
+     * @return number of failed accounts
+     */
+    private static int report(Map<Account, Future<Long>> results) {
+        List<String> lines = new ArrayList<>();
+        int failed = 0;
+        for (Map.Entry<Account, Future<Long>> result : results.entrySet()) {
+            String name = result.getKey().getName();
+            try {
+                lines.add(name + ": done in " + result.getValue().get() + " ms");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExitWithErrorException("Interrupted while waiting for accounts to finish");
+            } catch (ExecutionException e) {
+                failed++;
+                lines.add(name + ": failed, " + (e.getCause() instanceof ExitWithErrorException
+                        ? e.getCause().getMessage() : e.getCause().toString()));
+            }
+        }
+        lines.forEach(System.out::println);
+        return failed;
+    }
+}
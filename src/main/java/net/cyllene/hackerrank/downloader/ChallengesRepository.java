@@ -15,62 +15,229 @@
  */
 package net.cyllene.hackerrank.downloader;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import lombok.Setter;
 import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
+import net.cyllene.hackerrank.downloader.dto.CodeTarget;
+import net.cyllene.hackerrank.downloader.dto.JsonReaders;
 import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
 import net.cyllene.hackerrank.downloader.dto.SubmissionSummary;
 import net.cyllene.hackerrank.downloader.dto.SubmissionsCollection;
+import net.cyllene.hackerrank.downloader.events.Events;
 import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
- * Singleton-ish repository.
+ * Repository of a single account.
  * <p>
  * Provides data in form of DTOs for further processing.
  * <p>
- * Supposed to be injected into the main program.
+ * Supposed to be injected into the main program. A regular run uses {@link #INSTANCE}, a batch run
+ * creates one per account, all of them sharing the same {@link HttpClient}. Methods are safe to call
+ * from several download threads at once, as long as the injected {@link HttpClient} is thread-safe too.
  */
-enum ChallengesRepository {
-    INSTANCE;
+class ChallengesRepository {
+    static final ChallengesRepository INSTANCE = new ChallengesRepository();
+
+    @Setter
+    private volatile HttpClient httpClient;
+    /**
+     * Session of the account when the client is shared by several accounts,
+     * cookies of the client itself are used if not set
+     */
+    @Setter
+    private volatile CookieStore cookieStore;
+    @Setter
+    private volatile Settings settings;
+    /**
+     * Optional, challenge descriptions are always requested from server if not set
+     */
     @Setter
-    private HttpClient httpClient;
+    private volatile ResponseCache responseCache;
+    /**
+     * Optional, concurrent requests for the same challenge are not coalesced if not set
+     */
     @Setter
-    private Settings settings;
-    private ObjectMapper mapper = new ObjectMapper()
-            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private volatile SingleFlightCache<String, ChallengeDetails> challengeDetailsCache;
+    /**
+     * Optional, requests are sent as soon as they are made if not set
+     */
+    @Setter
+    private volatile RequestGovernor governor;
+
+    /**
+     * Downloads the whole requested range and merges it into a single structure.
+     *
+     * @return IDs of submissions grouped by challenge slug
+     * @throws IOException mapper read failed
+     */
+    SubmissionIndex getSubmissionsList(int offset, int limit) throws IOException {
+        SubmissionIndex result = new SubmissionIndex();
+        getSubmissionsList(offset, limit, Runnable::run, result::addAll);
+        return result;
+    }
+
+    /**
+     * Lists submissions page by page. A small probe page is requested first to learn the total
+     * number of submissions, then the rest of the range is requested in fixed-size pages concurrently.
+     * <p>
+     * Every page is handed over to the consumer as soon as it is parsed, so downloads may start
+     * before the listing is complete. The consumer is called from the executor threads.
+     *
+     * @param offset       number of submissions to skip
+     * @param limit        maximum number of submissions to list
+     * @param executor     runs requests for the pages after the probe one
+     * @param pageConsumer receives IDs of a single page grouped by challenge slug
+     * @return watermark of the newest submission listed
+     * @throws IOException mapper read failed
+     */
+    Watermark getSubmissionsList(int offset, int limit, Executor executor,
+                                 Consumer<SubmissionIndex> pageConsumer) throws IOException {
+        return getSubmissionsList(offset, limit, executor, null, pageConsumer);
+    }
+
+    /**
+     * Same as {@link #getSubmissionsList(int, int, Executor, Consumer)}, but listed submissions are offered
+     * to the selector instead of the consumer, which receives empty pages then
+     *
+     * @param selector chooses submissions to download, may be null
+     */
+    Watermark getSubmissionsList(int offset, int limit, Executor executor, SubmissionSelector selector,
+                                 Consumer<SubmissionIndex> pageConsumer) throws IOException {
+        int probeLimit = Math.min(Settings.PAGE_SIZE, limit);
+        SubmissionsCollection probe = getSubmissionsPage(offset, probeLimit);
+        AtomicReference<Watermark> newest = new AtomicReference<>(newest(Watermark.NONE, probe.getModels()));
+        pageConsumer.accept(groupByChallenge(probe.getModels(), selector));
+
+        long last = Math.min((long) offset + limit, probe.getTotal());
+        List<CompletableFuture<Void>> pages = new ArrayList<>();
+        for (long pageOffset = (long) offset + probeLimit; pageOffset < last; pageOffset += Settings.PAGE_SIZE) {
+            int currentOffset = (int) pageOffset;
+            int currentLimit = (int) Math.min(Settings.PAGE_SIZE, last - pageOffset);
+            pages.add(CompletableFuture.runAsync(() -> {
+                try {
+                    List<SubmissionSummary> models = getSubmissionsPage(currentOffset, currentLimit).getModels();
+                    newest.accumulateAndGet(newest(Watermark.NONE, models), Watermark::max);
+                    pageConsumer.accept(groupByChallenge(models, selector));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(pages.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        return newest.get();
+    }
 
     /**
-     * @return map with IDs of challenges grouped by submissions
+     * Lists only submissions made after the watermark. Server returns the newest submissions first,
+     * so pages are requested one after another and paging stops as soon as an already known
+     * submission is met. When nothing changed since the watermark, this costs a single request.
+     *
+     * @param since        the newest submission downloaded before
+     * @param limit        maximum number of submissions to list
+     * @param pageConsumer receives IDs of new submissions from a single page grouped by challenge slug
+     * @return watermark of the newest submission listed, or the supplied one if there are no new submissions
      * @throws IOException mapper read failed
      */
-    Map<String, List<Long>> getSubmissionsList(int offset, int limit) throws IOException {
-        Map<String, List<Long>> result = new HashMap<>();
+    Watermark getSubmissionsNewerThan(Watermark since, int limit,
+                                      Consumer<SubmissionIndex> pageConsumer) throws IOException {
+        return getSubmissionsNewerThan(since, limit, null, pageConsumer);
+    }
 
-        String body = getJsonStringFrom("/rest/contests/master/submissions/?offset=" + offset + "&limit=" + limit);
+    /**
+     * Same as {@link #getSubmissionsNewerThan(Watermark, int, Consumer)}, with selection as in
+     * {@link #getSubmissionsList(int, int, Executor, SubmissionSelector, Consumer)}
+     */
+    Watermark getSubmissionsNewerThan(Watermark since, int limit, SubmissionSelector selector,
+                                      Consumer<SubmissionIndex> pageConsumer) throws IOException {
+        Watermark newest = since;
+        int pageOffset = 0;
+        while (pageOffset < limit) {
+            int pageLimit = Math.min(Settings.PAGE_SIZE, limit - pageOffset);
+            SubmissionsCollection page = getSubmissionsPage(pageOffset, pageLimit);
+            List<SubmissionSummary> models = page.getModels() == null ? Collections.emptyList() : page.getModels();
 
-        SubmissionsCollection submissions = mapper.readValue(body.getBytes(), SubmissionsCollection.class);
+            List<SubmissionSummary> newSubmissions = models.stream()
+                    .filter(since::isBefore)
+                    .collect(Collectors.toList());
+            newest = newest(newest, newSubmissions);
+            pageConsumer.accept(groupByChallenge(newSubmissions, selector));
+
+            if (newSubmissions.size() < models.size() || models.size() < pageLimit) {
+                break;
+            }
+            pageOffset += pageLimit;
+        }
+        return newest;
+    }
+
+    private static Watermark newest(Watermark watermark, List<SubmissionSummary> submissions) {
+        if (submissions != null) {
+            for (SubmissionSummary submission : submissions) {
+                watermark = watermark.advance(submission);
+            }
+        }
+        return watermark;
+    }
+
+    private SubmissionsCollection getSubmissionsPage(int offset, int limit) throws IOException {
+        return getJsonFrom("/rest/contests/master/submissions/?offset=" + offset + "&limit=" + limit,
+                JsonReaders.SUBMISSIONS_PAGE);
+    }
+
+    /**
+     * @param selector receives accepted submissions instead of the result if not null
+     * @return IDs of submissions from a single page grouped by challenge slug
+     */
+    private SubmissionIndex groupByChallenge(List<SubmissionSummary> submissions, SubmissionSelector selector) {
+        SubmissionIndex result = new SubmissionIndex();
+        if (submissions == null) {
+            return result;
+        }
 
-        for (SubmissionSummary submissionSummary : submissions.getModels()) {
+        for (SubmissionSummary submissionSummary : submissions) {
             if (settings.isAcceptedOnly() && Settings.STATUS_CODE_ACCEPTED != submissionSummary.getStatusCode()) {
                 continue;
             }
-            String slug = submissionSummary.getChallenge().getSlug();
-            List<Long> currentChallengeSubmissions = result.getOrDefault(slug, new LinkedList<>());
-            currentChallengeSubmissions.add(submissionSummary.getId());
-            result.put(slug, currentChallengeSubmissions);
+            if (selector != null) {
+                selector.offer(submissionSummary);
+            } else {
+                result.add(submissionSummary.getChallenge().getSlug(), submissionSummary.getId());
+            }
         }
 
         if (settings.isVerbose()) {
@@ -86,10 +253,12 @@ enum ChallengesRepository {
      * @return {@link ChallengeDetails} object created from JSON returned by server
      */
     public ChallengeDetails getChallengeDetails(String slug) throws IOException {
-        String body = getJsonStringFrom("/rest/contests/master/challenges/" + slug);
-
-        JsonNode node = mapper.readValue(body.getBytes(), JsonNode.class).get("model"); // Strip of wrapper class
-        return mapper.convertValue(node, ChallengeDetails.class);
+        SingleFlightCache<String, ChallengeDetails> memo = challengeDetailsCache;
+        if (memo == null) {
+            return getCachedJsonFrom("/rest/contests/master/challenges/" + slug, JsonReaders.CHALLENGE_DETAILS);
+        }
+        return memo.get(slug, () -> getCachedJsonFrom("/rest/contests/master/challenges/" + slug,
+                JsonReaders.CHALLENGE_DETAILS));
     }
 
     /**
@@ -99,40 +268,178 @@ enum ChallengesRepository {
      * @return {@link SubmissionSummary} object created from JSON returned by server
      */
     public SubmissionDetails getSubmissionDetails(long id) throws IOException {
-        String body = getJsonStringFrom("/rest/contests/master/submissions/" + id);
+        return withPlatformLineSeparators(this.<SubmissionDetails>getJsonFrom("/rest/contests/master/submissions/" + id,
+                JsonReaders.SUBMISSION_DETAILS));
+    }
+
+    /**
+     * Same as {@link #getSubmissionDetails(long)}, but the code is written into the target as it is read
+     * from the response, with line separators of the current platform
+     *
+     * @param id     Submission id, which is passed to server in URL
+     * @param target receives the code, may throw {@link ExitWithErrorException} which is propagated as is
+     * @return {@link SubmissionDetails} object without code, unless the code could not be streamed
+     */
+    SubmissionDetails getSubmissionDetails(long id, CodeTarget target) throws IOException {
+        return withPlatformLineSeparators(this.<SubmissionDetails>getJsonFrom("/rest/contests/master/submissions/" + id,
+                JsonReaders.submissionDetails(withPlatformLineSeparators(target))));
+    }
 
-        JsonNode node = mapper.readValue(body.getBytes(), JsonNode.class).get("model");  // Strip of wrapper class
-        SubmissionDetails submissionDetails = mapper.convertValue(node, SubmissionDetails.class);
-        submissionDetails.setCode(submissionDetails.getCode().replaceAll("\n", System.lineSeparator())); // ?
+    /**
+     * Server always uses \n, solutions are saved with line separators of the current platform
+     */
+    static SubmissionDetails withPlatformLineSeparators(SubmissionDetails submissionDetails) {
+        String separator = System.lineSeparator();
+        if (submissionDetails.getCode() != null && !"\n".equals(separator)) {
+            submissionDetails.setCode(submissionDetails.getCode().replace("\n", separator));
+        }
         return submissionDetails;
     }
 
     /**
-     * Returns body from GET request to specified URL using Cookie authentication
+     * Streaming counterpart of {@link #withPlatformLineSeparators(SubmissionDetails)}
+     */
+    static CodeTarget withPlatformLineSeparators(CodeTarget target) {
+        String separator = System.lineSeparator();
+        if ("\n".equals(separator)) {
+            return target;
+        }
+        return (submission, code) -> target.write(submission,
+                writer -> code.copyTo(new LineSeparatorWriter(writer, separator)));
+    }
+
+    /**
+     * Requests a JSON document using Cookie authentication and decodes it straight from the response stream
      *
-     * @param url The url argument must specify an absolute URL
-     * @return JSON string returned by server from supplied address
+     * @param url    The url argument must specify an absolute URL
+     * @param reader decoder for the expected document
+     * @return object created from JSON returned by server
+     * @throws IOException response body could not be read or decoded
      */
-    private String getJsonStringFrom(String url) {
-        ResponseHandler<String> handler = new BasicResponseHandler();
+    private <T> T getJsonFrom(String url, ObjectReader reader) throws IOException {
+        HttpEntity entity = getResponseFrom(url).getEntity();
+        try (InputStream content = entity.getContent()) {
+            return decode(url, reader, content, false);
+        } finally {
+            // Reads the rest of the body, if any, so that the connection goes back to the pool
+            EntityUtils.consumeQuietly(entity);
+        }
+    }
 
-        String body;
-        try {
-            body = handler.handleResponse(authenticateAndGetURL(Settings.BASE_URL + url));
-        } catch (IOException e) {
-            if (settings.isVerbose()) {
-                e.printStackTrace();
+    /**
+     * Same as {@link #getJsonFrom(String, ObjectReader)}, but goes through the persistent response cache
+     * if one is configured. Fresh entries are used without a request, stale ones are revalidated.
+     */
+    private <T> T getCachedJsonFrom(String url, ObjectReader reader) throws IOException {
+        ResponseCache cache = responseCache;
+        if (cache == null) {
+            return getJsonFrom(url, reader);
+        }
+
+        ResponseCache.Entry entry = cache.lookup(url);
+        Path body;
+        if (entry != null && cache.isFresh(entry)) {
+            body = cache.hit(entry);
+        } else {
+            HttpResponse response = getResponseFrom(url, entry == null ? new Header[0] : cache.validatorsOf(entry));
+            try {
+                body = response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                        ? cache.revalidated(entry)
+                        : cache.store(url, response);
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
             }
-            throw new ExitWithErrorException("Could not get JSON data from server");
         }
-        return body;
+
+        try (InputStream content = Files.newInputStream(body)) {
+            return decode(url, reader, content, true);
+        } catch (NoSuchFileException e) {
+            // Evicted by another thread in the meantime
+            return getJsonFrom(url, reader);
+        }
     }
 
-    private HttpResponse authenticateAndGetURL(String url) throws IOException {
+    /**
+     * Decodes a document, recording a {@link Events#commitDecode decode event}
+     *
+     * @param url    relative URL of the document
+     * @param cached document is read from response cache
+     */
+    static <T> T decode(String url, ObjectReader reader, InputStream content, boolean cached) throws IOException {
+        Object event = Events.beginDecode();
+        CountingInputStream counted = new CountingInputStream(content);
+        try {
+            return reader.readValue(counted);
+        } finally {
+            Events.commitDecode(event, requestType(url), url, cached, counted.getCount());
+        }
+    }
+
+    /**
+     * @param url relative or absolute URL of a request
+     * @return kind of requested document: submissions (a page of the list), submission or challenge
+     */
+    static String requestType(String url) {
+        if (url.contains("/challenges/")) {
+            return "challenge";
+        }
+        return url.contains("/submissions/?") ? "submissions" : "submission";
+    }
+
+    /**
+     * Sends GET request to specified URL using Cookie authentication
+     *
+     * @param url        The url argument must specify an absolute URL
+     * @param validators conditional request headers, 304 response is accepted only when they are present
+     * @return successful response, body is not consumed yet
+     * @throws IOException no successful response after all retries, the caller decides if the run can go on
+     */
+    private HttpResponse getResponseFrom(String url, Header... validators) throws IOException {
+        HttpResponse response = authenticateAndGetURL(settings.getBaseUrl() + url, validators);
+        StatusLine statusLine = response.getStatusLine();
+        if (statusLine.getStatusCode() == HttpStatus.SC_NOT_MODIFIED && validators.length > 0) {
+            return response;
+        }
+        if (statusLine.getStatusCode() >= 300) {
+            EntityUtils.consume(response.getEntity());
+            throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+        }
+        if (response.getEntity() == null) {
+            throw new ClientProtocolException("Response contains no content");
+        }
+        return response;
+    }
+
+    private HttpResponse authenticateAndGetURL(String url, Header... headers) throws IOException {
         if (settings.isVerbose()) {
             System.out.println("Getting: " + url);
         }
-        return httpClient.execute(new HttpGet(url));
+        HttpGet request = new HttpGet(url);
+        request.setHeaders(headers);
+        RequestGovernor currentGovernor = governor;
+        if (currentGovernor == null) {
+            return execute(request);
+        }
+        return currentGovernor.execute(() -> execute(request));
+    }
+
+    /**
+     * A single attempt of the request, recorded as a {@link Events#commitRequest request event}
+     */
+    private HttpResponse execute(HttpGet request) throws IOException {
+        String url = request.getURI().toString();
+        Object event = Events.beginRequest();
+        HttpResponse response = null;
+        try {
+            CookieStore currentCookieStore = cookieStore;
+            response = currentCookieStore == null ? httpClient.execute(request)
+                    : httpClient.execute(request, HttpClientConfiguration.context(currentCookieStore));
+            return response;
+        } finally {
+            Events.commitRequest(event, requestType(url), url,
+                    response == null ? 0 : response.getStatusLine().getStatusCode(),
+                    response == null || response.getEntity() == null ? -1 : response.getEntity().getContentLength());
+        }
     }
 
 }
@@ -23,6 +23,7 @@ import java.io.File;
 import java.net.URISyntaxException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
+import java.util.Locale;
 
 /**
  * Singleton-ish service responsible for parsing command line parameters and creating a
@@ -50,9 +51,59 @@ enum CommandLineDispatcher {
                 .argName("PATH")
                 .desc("path to output directory. Default: current working directory")
                 .build());
+        options.addOption(Option.builder().longOpt("batch")
+                .hasArg(true)
+                .argName("FILE")
+                .desc("download several accounts in one run, sharing connections and threads. Each line of the file"
+                        + " holds an account name, its session cookie and its output directory")
+                .build());
+        options.addOption(Option.builder().longOpt("resume")
+                .desc("finish an interrupted run in an existing directory, skipping files it has written")
+                .build());
+        options.addOption(Option.builder().longOpt("retry-failed")
+                .desc("download again only what failed in the previous run into an existing directory, as listed"
+                        + " in " + Settings.DEAD_LETTER_FILENAME + " inside it")
+                .build());
+        options.addOption(Option.builder().longOpt("select")
+                .hasArg(true)
+                .argName("POLICY")
+                .desc("which submissions of a challenge to download: all, latest or best-score. Default is all")
+                .build());
+        options.addOption(Option.builder().longOpt("shard")
+                .hasArg(true)
+                .argName("INDEX/COUNT")
+                .desc("download only a part of challenges, e.g. 2/4, into a staging directory next to the output"
+                        + " directory. Shards may run in separate processes or on separate machines")
+                .build());
+        options.addOption(Option.builder().longOpt("merge")
+                .desc("combine staging directories of all shards into the output directory instead of downloading")
+                .build());
         options.addOption(Option.builder("f").longOpt("force-overwrite")
                 .desc("Force overwrite if output directory exists. May lead to data loss.")
                 .build());
+        options.addOption(Option.builder("s").longOpt("sync")
+                .desc("Download only submissions made since the previous run into an existing directory.")
+                .build());
+        options.addOption(Option.builder().longOpt("dedup")
+                .desc("store identical solutions once, as hard links to " + Settings.OBJECTS_DIRNAME
+                        + " inside output directory")
+                .build());
+        options.addOption(Option.builder().longOpt("format")
+                .hasArg(true)
+                .argName("NAME")
+                .desc("how to store downloaded files: files (a directory tree) or zip (a single archive"
+                        + " named after output directory, with the same layout). Default is files")
+                .build());
+        options.addOption(Option.builder().longOpt("write-queue")
+                .hasArg(true)
+                .argName("NUMBER")
+                .type(Number.class)
+                .desc("number of files waiting for a dedicated writer thread, 0 to write them on download threads."
+                        + " Default is " + Settings.DEFAULT_WRITE_QUEUE)
+                .build());
+        options.addOption(Option.builder().longOpt("fsync")
+                .desc("force written files to disk, a batch of files at a time")
+                .build());
         options.addOption(Option.builder("l").longOpt("limit")
                 .hasArg(true)
                 .argName("NUMBER")
@@ -66,6 +117,91 @@ enum CommandLineDispatcher {
                 .type(Number.class)
                 .desc("number of items to skip. Default is " + Settings.DEFAULT_OFFSET)
                 .build());
+        options.addOption(Option.builder("t").longOpt("threads")
+                .required(false)
+                .hasArg(true)
+                .argName("NUMBER")
+                .type(Number.class)
+                .desc("number of downloads running concurrently. Default is " + Settings.DEFAULT_THREADS)
+                .build());
+        options.addOption(Option.builder().longOpt("engine")
+                .hasArg(true)
+                .argName("NAME")
+                .desc("how to request details: blocking (a thread per request), async (non-blocking I/O,"
+                        + " concurrency is limited by connection pool) or virtual (a virtual thread per"
+                        + " request, --threads of them in flight, needs JDK 21). Default is blocking")
+                .build());
+        options.addOption(Option.builder().longOpt("max-connections")
+                .hasArg(true)
+                .argName("NUMBER")
+                .type(Number.class)
+                .desc("size of HTTP connection pool. Default is number of threads + 1")
+                .build());
+        options.addOption(Option.builder().longOpt("max-connections-per-route")
+                .hasArg(true)
+                .argName("NUMBER")
+                .type(Number.class)
+                .desc("maximum number of HTTP connections to a single host. Default is the pool size")
+                .build());
+        options.addOption(Option.builder().longOpt("connect-timeout")
+                .hasArg(true)
+                .argName("SECONDS")
+                .type(Number.class)
+                .desc("time to establish a connection. Default is " + Settings.DEFAULT_CONNECT_TIMEOUT)
+                .build());
+        options.addOption(Option.builder().longOpt("read-timeout")
+                .hasArg(true)
+                .argName("SECONDS")
+                .type(Number.class)
+                .desc("maximum inactivity while waiting for data. Default is " + Settings.DEFAULT_READ_TIMEOUT)
+                .build());
+        options.addOption(Option.builder().longOpt("request-timeout")
+                .hasArg(true)
+                .argName("SECONDS")
+                .type(Number.class)
+                .desc("time to wait for a free pooled connection. Default is " + Settings.DEFAULT_REQUEST_TIMEOUT)
+                .build());
+        options.addOption(Option.builder().longOpt("rate-limit")
+                .hasArg(true)
+                .argName("NUMBER")
+                .type(Number.class)
+                .desc("maximum number of requests per second, 0 for no limit. By default there is no limit,"
+                        + " requests slow down when the server throttles them or responds slower")
+                .build());
+        options.addOption(Option.builder().longOpt("retries")
+                .hasArg(true)
+                .argName("NUMBER")
+                .type(Number.class)
+                .desc("how many times to repeat a request failed with an I/O error or a server error, 0 to give up"
+                        + " at once. Default is " + Settings.DEFAULT_RETRIES)
+                .build());
+        options.addOption(Option.builder().longOpt("no-cache")
+                .desc("always request challenge descriptions from server, bypassing local cache")
+                .build());
+        options.addOption(Option.builder().longOpt("cache-dir")
+                .hasArg(true)
+                .argName("PATH")
+                .desc("path to challenge descriptions cache. Default: " + Settings.CACHE_DIRNAME + " in home directory")
+                .build());
+        options.addOption(Option.builder().longOpt("cache-ttl")
+                .hasArg(true)
+                .argName("HOURS")
+                .type(Number.class)
+                .desc("time to use a cached description without revalidation. Default is " + Settings.DEFAULT_CACHE_TTL)
+                .build());
+        options.addOption(Option.builder().longOpt("cache-size")
+                .hasArg(true)
+                .argName("MEGABYTES")
+                .type(Number.class)
+                .desc("maximum size of cache, least recently used entries are evicted. Default is "
+                        + Settings.DEFAULT_CACHE_SIZE)
+                .build());
+        options.addOption(Option.builder().longOpt("jfr")
+                .hasArg(true)
+                .argName("FILE")
+                .desc("record the run with Java Flight Recorder into a file, including events of every request,"
+                        + " JSON decoding and file write")
+                .build());
         options.addOption(Option.builder("v").longOpt("verbose")
                 .required(false)
                 .desc("run in verbose mode")
@@ -110,6 +246,14 @@ enum CommandLineDispatcher {
 
         settings.setVerbose(cmd.hasOption("verbose"));
         settings.setForcedFilesOverwrite(cmd.hasOption("f"));
+        settings.setSyncMode(cmd.hasOption("sync"));
+        settings.setResume(cmd.hasOption("resume"));
+        settings.setRetryFailed(cmd.hasOption("retry-failed"));
+        if (settings.isRetryFailed() && (settings.isSyncMode() || settings.isResume())) {
+            throw new ExitWithErrorException("--retry-failed downloads only what failed before,"
+                    + " --sync and --resume are not supported");
+        }
+        settings.setDeduplicated(cmd.hasOption("dedup"));
 
         if (cmd.hasOption("directory")) {
             String providedD = cmd.getOptionValue("d");
@@ -120,6 +264,65 @@ enum CommandLineDispatcher {
             }
         }
 
+        if (cmd.hasOption("batch")) {
+            if (cmd.hasOption("directory")) {
+                throw new ExitWithErrorException("--directory cannot be used with --batch,"
+                        + " output directories are listed in the batch file");
+            }
+            String providedBatch = cmd.getOptionValue("batch");
+            try {
+                settings.setBatchFile(Paths.get(providedBatch).toAbsolutePath().normalize());
+            } catch (InvalidPathException e) {
+                throw new ExitWithErrorException("Value provided with --batch option is invalid: " + providedBatch);
+            }
+        }
+
+        if (cmd.hasOption("shard")) {
+            String providedShard = cmd.getOptionValue("shard");
+            try {
+                settings.setShard(Shard.parse(providedShard));
+            } catch (IllegalArgumentException e) {
+                throw new ExitWithErrorException("Incorrect shard " + providedShard + ": " + e.getMessage());
+            }
+            if (settings.isSyncMode() || settings.isRetryFailed()) {
+                throw new ExitWithErrorException("--shard downloads a fixed part of history, --sync and"
+                        + " --retry-failed are not supported. Sync the merged directory instead");
+            }
+        }
+        settings.setMergeShards(cmd.hasOption("merge"));
+        if (settings.isMergeShards() && (settings.getShard() != null || settings.getBatchFile() != null)) {
+            throw new ExitWithErrorException("--merge combines shards of a single output directory,"
+                    + " --shard and --batch are not supported");
+        }
+
+        if (cmd.hasOption("format")) {
+            String providedFormat = cmd.getOptionValue("format");
+            try {
+                settings.setFormat(Settings.Format.valueOf(providedFormat.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new ExitWithErrorException("Incorrect format: " + providedFormat);
+            }
+        }
+        if (settings.getFormat() == Settings.Format.ZIP && (settings.isSyncMode() || settings.isDeduplicated()
+                || settings.getShard() != null || settings.isResume() || settings.isRetryFailed())) {
+            throw new ExitWithErrorException("--sync, --dedup, --shard, --resume and --retry-failed need an output"
+                    + " directory, they are not supported with --format zip");
+        }
+
+        settings.setFsync(cmd.hasOption("fsync"));
+        if (cmd.hasOption("write-queue")) {
+            int writeQueue;
+            try {
+                writeQueue = ((Number) cmd.getParsedOptionValue("write-queue")).intValue();
+            } catch (ParseException e) {
+                throw new ExitWithErrorException("Incorrect write queue size: " + e.getMessage());
+            }
+            if (writeQueue < 0) {
+                throw new ExitWithErrorException("Incorrect write queue size: " + writeQueue);
+            }
+            settings.setWriteQueue(writeQueue);
+        }
+
         if (cmd.hasOption("limit")) {
             try {
                 int limit = ((Number) cmd.getParsedOptionValue("l")).intValue();
@@ -138,9 +341,128 @@ enum CommandLineDispatcher {
             }
         }
 
+        if (settings.isSyncMode() && settings.getOffset() != Settings.DEFAULT_OFFSET) {
+            throw new ExitWithErrorException("--sync always starts from the newest submission, --offset is not supported");
+        }
+        // New submissions beyond the limit would end up older than the stored watermark and never be synced
+        if (settings.isSyncMode() && settings.getLimit() != Settings.DEFAULT_LIMIT) {
+            throw new ExitWithErrorException("--sync downloads everything new since the previous run,"
+                    + " --limit is not supported");
+        }
+
+        if (cmd.hasOption("threads")) {
+            settings.setThreads(parsePositiveNumber(cmd, "threads", "number of threads"));
+        }
+
+        if (cmd.hasOption("select")) {
+            String providedSelection = cmd.getOptionValue("select");
+            try {
+                settings.setSelection(Settings.Selection.valueOf(
+                        providedSelection.replace('-', '_').toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new ExitWithErrorException("Incorrect selection: " + providedSelection);
+            }
+        }
+
+        if (cmd.hasOption("engine")) {
+            String providedEngine = cmd.getOptionValue("engine");
+            try {
+                settings.setEngine(Settings.Engine.valueOf(providedEngine.toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new ExitWithErrorException("Incorrect engine: " + providedEngine);
+            }
+        }
+
+        settings.setMaxConnections(cmd.hasOption("max-connections")
+                ? parsePositiveNumber(cmd, "max-connections", "pool size")
+                : settings.getThreads() + 1);
+        settings.setMaxConnectionsPerRoute(cmd.hasOption("max-connections-per-route")
+                ? parsePositiveNumber(cmd, "max-connections-per-route", "number of connections per route")
+                : settings.getMaxConnections());
+
+        if (cmd.hasOption("connect-timeout")) {
+            settings.setConnectTimeout(parsePositiveNumber(cmd, "connect-timeout", "connect timeout"));
+        }
+        if (cmd.hasOption("read-timeout")) {
+            settings.setReadTimeout(parsePositiveNumber(cmd, "read-timeout", "read timeout"));
+        }
+        if (cmd.hasOption("request-timeout")) {
+            settings.setRequestTimeout(parsePositiveNumber(cmd, "request-timeout", "request timeout"));
+        }
+
+        if (cmd.hasOption("rate-limit")) {
+            int rateLimit;
+            try {
+                rateLimit = ((Number) cmd.getParsedOptionValue("rate-limit")).intValue();
+            } catch (ParseException e) {
+                throw new ExitWithErrorException("Incorrect rate limit: " + e.getMessage());
+            }
+            if (rateLimit < 0) {
+                throw new ExitWithErrorException("Incorrect rate limit: " + rateLimit);
+            }
+            settings.setRateLimit(rateLimit);
+        }
+        if (cmd.hasOption("retries")) {
+            int retries;
+            try {
+                retries = ((Number) cmd.getParsedOptionValue("retries")).intValue();
+            } catch (ParseException e) {
+                throw new ExitWithErrorException("Incorrect number of retries: " + e.getMessage());
+            }
+            if (retries < 0) {
+                throw new ExitWithErrorException("Incorrect number of retries: " + retries);
+            }
+            settings.setRetries(retries);
+        }
+
+        settings.setCacheEnabled(!cmd.hasOption("no-cache"));
+        if (cmd.hasOption("cache-dir")) {
+            String providedCacheDir = cmd.getOptionValue("cache-dir");
+            try {
+                settings.setCacheDir(Paths.get(providedCacheDir).toAbsolutePath().normalize());
+            } catch (InvalidPathException e) {
+                throw new ExitWithErrorException("Value provided with --cache-dir option is invalid: " + providedCacheDir);
+            }
+        }
+        if (cmd.hasOption("cache-ttl")) {
+            settings.setCacheTtl(parsePositiveNumber(cmd, "cache-ttl", "cache TTL"));
+        }
+        if (cmd.hasOption("cache-size")) {
+            settings.setCacheSize(parsePositiveNumber(cmd, "cache-size", "cache size"));
+        }
+
+        if (cmd.hasOption("jfr")) {
+            String providedJfrFile = cmd.getOptionValue("jfr");
+            try {
+                settings.setJfrFile(Paths.get(providedJfrFile).toAbsolutePath().normalize());
+            } catch (InvalidPathException e) {
+                throw new ExitWithErrorException("Value provided with --jfr option is invalid: " + providedJfrFile);
+            }
+        }
+
         return settings;
     }
 
+    /**
+     * @param cmd         the result of parsing user-provided parameters
+     * @param option      long name of a numeric option
+     * @param description human-readable name of the value, used in error message
+     * @return value of the option
+     * @throws ExitWithErrorException when value is not a number or is not positive
+     */
+    private int parsePositiveNumber(CommandLine cmd, String option, String description) {
+        int value;
+        try {
+            value = ((Number) cmd.getParsedOptionValue(option)).intValue();
+        } catch (ParseException e) {
+            throw new ExitWithErrorException("Incorrect " + description + ": " + e.getMessage());
+        }
+        if (value < 1) {
+            throw new ExitWithErrorException("Incorrect " + description + ": " + value);
+        }
+        return value;
+    }
+
     /**
      * Print usage info to stdout
      */
@@ -161,7 +483,7 @@ enum CommandLineDispatcher {
                 + "Application expects a file " + Settings.KEY_FILENAME
                 + " to exist in your home directory. "
                 + "It must contain a single ASCII line, a value of \""
-                + Settings.COOKIE_NAME + "\" cookie variable";
+                + Settings.COOKIE_NAME + "\" cookie variable, unless accounts are listed with --batch";
         formatter.printHelp(sUsage, header, cliOptions, footer, true);
     }
 
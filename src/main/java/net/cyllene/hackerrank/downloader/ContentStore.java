@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed storage of files.
+ * <p>
+ * Every distinct content is stored once under a name derived from its SHA-256 hash, the requested
+ * files become hard links to it. Identical resubmissions then cost a directory entry instead of
+ * a copy. If the file system does not support hard links, a regular copy is written instead.
+ * <p>
+ * Note that all links share the same data, editing one of them in place changes all of them.
+ */
+class ContentStore {
+    private final Path objectsDir;
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder logicalBytes = new LongAdder();
+    private final LongAdder objects = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    /**
+     * @param objectsDir where to keep the stored objects, created on demand
+     */
+    ContentStore(Path objectsDir) {
+        this.objectsDir = objectsDir;
+    }
+
+    /**
+     * Makes the target file have supplied content, storing the content only if it was not seen before
+     *
+     * @param content data to be written
+     * @param target  file to be created or replaced
+     * @throws IOException object or link could not be created
+     */
+    void write(byte[] content, Path target) throws IOException {
+        files.increment();
+        logicalBytes.add(content.length);
+
+        Path object = store(content);
+
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, object);
+        } catch (UnsupportedOperationException | IOException e) {
+            Path part = DirectorySink.partOf(target);
+            Files.write(part, content);
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            storedBytes.add(content.length);
+        }
+    }
+
+    /**
+     * @return a stored object with the content, existing one if possible
+     */
+    private Path store(byte[] content) throws IOException {
+        String hash = DigestUtils.sha256Hex(content);
+        Path object = objectsDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+        if (Files.exists(object)) {
+            return object;
+        }
+
+        Files.createDirectories(object.getParent());
+        Path temporary = Files.createTempFile(object.getParent(), hash, ".tmp");
+        try {
+            Files.write(temporary, content);
+            // Fails if a concurrent writer stored the same content first, replacing it would be harmless anyway
+            Files.move(temporary, object);
+            objects.increment();
+            storedBytes.add(content.length);
+        } catch (FileAlreadyExistsException e) {
+            // Stored by another thread in the meantime
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        return object;
+    }
+
+    /**
+     * @return how many times less data was written compared to plain files, 1.0 if nothing was written
+     */
+    double getDeduplicationRatio() {
+        long stored = storedBytes.sum();
+        return stored == 0 ? 1.0 : (double) logicalBytes.sum() / stored;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deduplication: %d files, %d new objects, %d KB of content, %d KB written, ratio %.2f",
+                files.sum(), objects.sum(), logicalBytes.sum() / 1024, storedBytes.sum() / 1024,
+                getDeduplicationRatio());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Downloads which failed after all retries, stored in the output directory at the end of a run
+ * for {@code --retry-failed}. Removed once a run completes without failures.
+ * <p>
+ * Text file with a record per line: {@code listing ID CREATED_AT} with the newest submission listed by
+ * the failed run, then {@code description SLUG REASON} and {@code submission SLUG ID REASON} per failure.
+ * Reasons are meant for humans and are not read back.
+ */
+class DeadLetters {
+    private static final String LISTING = "listing";
+    private static final String DESCRIPTION = "description";
+    private static final String SUBMISSION = "submission";
+
+    private final Set<String> descriptions = new LinkedHashSet<>();
+    private final SubmissionIndex submissions = new SubmissionIndex();
+    private final List<String> records = new ArrayList<>();
+    /**
+     * Newest submission listed by the run which failed, {@link Watermark#NONE} until stored or loaded
+     */
+    private Watermark listing = Watermark.NONE;
+
+    /**
+     * Records a challenge description which could not be downloaded. Safe to call from several threads.
+     */
+    synchronized void descriptionFailed(String challengeSlug, String reason) {
+        descriptions.add(challengeSlug);
+        records.add(DESCRIPTION + " " + challengeSlug + " " + singleLine(reason));
+    }
+
+    /**
+     * Records a submission which could not be downloaded. Safe to call from several threads.
+     */
+    synchronized void submissionFailed(String challengeSlug, long submissionId, String reason) {
+        submissions.add(challengeSlug, submissionId);
+        records.add(SUBMISSION + " " + challengeSlug + " " + submissionId + " " + singleLine(reason));
+    }
+
+    synchronized boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+    /**
+     * @return number of failed downloads
+     */
+    synchronized int size() {
+        return records.size();
+    }
+
+    /**
+     * @return slugs of challenges whose descriptions failed, in order of failure
+     */
+    synchronized Set<String> getDescriptions() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(descriptions));
+    }
+
+    /**
+     * @return failed submissions grouped by challenge, not to be modified
+     */
+    synchronized SubmissionIndex getSubmissions() {
+        return submissions;
+    }
+
+    synchronized Watermark getListing() {
+        return listing;
+    }
+
+    /**
+     * @param directory output directory
+     * @return failures of the previous run or null if there are none
+     * @throws IOException file exists but could not be read
+     */
+    static DeadLetters load(Path directory) throws IOException {
+        Path file = directory.resolve(Settings.DEAD_LETTER_FILENAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        DeadLetters deadLetters = new DeadLetters();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ", 4);
+                if (fields[0].isEmpty() || fields[0].startsWith("#")) {
+                    continue;
+                }
+                switch (fields[0]) {
+                    case LISTING:
+                        deadLetters.listing = new Watermark(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                        break;
+                    case DESCRIPTION:
+                        deadLetters.descriptions.add(fields[1]);
+                        deadLetters.records.add(line);
+                        break;
+                    case SUBMISSION:
+                        deadLetters.submissions.add(fields[1], Long.parseLong(fields[2]));
+                        deadLetters.records.add(line);
+                        break;
+                    default:
+                        throw new IOException("Unknown record in " + file + ": " + fields[0]);
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed list of failed downloads " + file, e);
+        }
+        return deadLetters;
+    }
+
+    /**
+     * Stores the failures in the directory, replacing the previous ones
+     *
+     * @param directory output directory
+     * @param listing   newest submission listed by this run, {@link Watermark#NONE} if the listing was partial
+     * @throws IOException file could not be written
+     */
+    synchronized void store(Path directory, Watermark listing) throws IOException {
+        this.listing = listing;
+        Path temporary = Files.createTempFile(directory, Settings.DEAD_LETTER_FILENAME, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writer.write("# Downloads failed by hackerrank-downloader, download them again with --retry-failed\n");
+                writer.write(LISTING + " " + listing.getId() + " " + listing.getCreatedAt() + "\n");
+                for (String record : records) {
+                    writer.write(record + "\n");
+                }
+            }
+            Files.move(temporary, directory.resolve(Settings.DEAD_LETTER_FILENAME),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Removes failures of a previous run, if any
+     *
+     * @throws IOException file could not be removed
+     */
+    static void delete(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve(Settings.DEAD_LETTER_FILENAME));
+    }
+
+    private static String singleLine(String reason) {
+        return reason == null ? "" : reason.replaceAll("\\s+", " ").trim();
+    }
+}
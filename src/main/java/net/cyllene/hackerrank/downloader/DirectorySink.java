@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.events.Events;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes every file separately into an output directory, the default layout.
+ * <p>
+ * Directories known to exist are not created again, a challenge directory is created once for all
+ * its solutions. With sync enabled, written files and their directories are forced to disk on
+ * {@link #flush()}, each directory once per flush.
+ * <p>
+ * A file is written under a temporary name and renamed into place when complete, so an interrupted
+ * run never leaves a partial file behind. Complete files are recorded in the {@link Journal} if there is one,
+ * with sync enabled only after they are forced to disk.
+ */
+class DirectorySink implements OutputSink {
+    static final String PART_SUFFIX = ".part";
+
+    private final Path root;
+    private final ContentStore contentStore;
+    private final Journal journal;
+    private final boolean sync;
+    private final boolean verbose;
+    private final Set<Path> existingDirectories = ConcurrentHashMap.newKeySet();
+    /**
+     * Files written since the last flush relative to the root, only when syncing
+     */
+    private final Queue<Path> unsynced = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder writingNanos = new LongAdder();
+
+    /**
+     * @param root         output directory
+     * @param contentStore stores identical files once, may be null
+     * @param sync         force written files to disk on flush
+     * @param verbose      report every file to stdout
+     */
+    DirectorySink(Path root, ContentStore contentStore, boolean sync, boolean verbose) {
+        this(root, contentStore, null, sync, verbose);
+    }
+
+    /**
+     * @param journal records complete files, may be null
+     */
+    DirectorySink(Path root, ContentStore contentStore, Journal journal, boolean sync, boolean verbose) {
+        this.root = root;
+        this.contentStore = contentStore;
+        this.journal = journal;
+        this.sync = sync;
+        this.verbose = verbose;
+    }
+
+    @Override
+    public void write(Path path, byte[] content) throws IOException {
+        Object event = Events.beginWrite();
+        long startedAt = System.nanoTime();
+        Path target = prepare(path);
+        if (contentStore != null) {
+            contentStore.write(content, target);
+        } else {
+            Path part = partOf(target);
+            try {
+                Files.write(part, content);
+                Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(part);
+                throw e;
+            }
+        }
+        written(path, target, event, startedAt, content.length);
+    }
+
+    /**
+     * Content goes straight into the file, except when deduplicating: objects are named after a hash
+     * of the whole content. Time of writing includes time of producing the content.
+     */
+    @Override
+    public void stream(Path path, Content content) throws IOException {
+        if (contentStore != null) {
+            OutputSink.super.stream(path, content);
+            return;
+        }
+
+        Object event = Events.beginWrite();
+        long startedAt = System.nanoTime();
+        Path target = prepare(path);
+        Path part = partOf(target);
+        long size;
+        try {
+            try (FileChannel channel = FileChannel.open(part,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                content.writeTo(Channels.newOutputStream(channel));
+                size = channel.position();
+            }
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // Incomplete file must not pass for a downloaded one
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        written(path, target, event, startedAt, size);
+    }
+
+    /**
+     * @return absolute path of the file, its directory exists
+     */
+    private Path prepare(Path path) throws IOException {
+        Path target = root.resolve(path);
+        if (verbose) {
+            System.out.println("Writing: " + target);
+        }
+
+        Path directory = target.getParent();
+        if (!existingDirectories.contains(directory)) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IOException("Unable to create directory " + directory, e);
+            }
+            existingDirectories.add(directory);
+        }
+        return target;
+    }
+
+    /**
+     * Each file is written by a single thread at a time, so its temporary name needs no randomness.
+     * A part left by an interrupted run is overwritten when the file is written again.
+     */
+    static Path partOf(Path target) {
+        return target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    }
+
+    private void written(Path path, Path target, Object event, long startedAt, long size) throws IOException {
+        if (sync) {
+            unsynced.add(path);
+        } else if (journal != null) {
+            journal.record(path);
+        }
+        writingNanos.add(System.nanoTime() - startedAt);
+        Events.commitWrite(event, target.toString(), "files", size);
+        files.increment();
+        bytes.add(size);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long startedAt = System.nanoTime();
+        Set<Path> directories = new HashSet<>();
+        List<Path> synced = new ArrayList<>();
+        for (Path path = unsynced.poll(); path != null; path = unsynced.poll()) {
+            Path file = root.resolve(path);
+            force(file, StandardOpenOption.WRITE);
+            directories.add(file.getParent());
+            synced.add(path);
+        }
+        for (Path directory : directories) {
+            // New directory entries are durable only after their directory is synced
+            try {
+                force(directory, StandardOpenOption.READ);
+            } catch (IOException e) {
+                // Not every platform allows opening a directory, files are synced anyway
+            }
+        }
+        // Files are recorded only when they are durable, otherwise a crash could leave a record of a lost file
+        if (journal != null && !synced.isEmpty()) {
+            for (Path path : synced) {
+                journal.record(path);
+            }
+            journal.force();
+        }
+        writingNanos.add(System.nanoTime() - startedAt);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private static void force(Path path, StandardOpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode)) {
+            channel.force(true);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Output: %d files, %d KB in %s, %d ms writing",
+                files.sum(), bytes.sum() / 1024, root, TimeUnit.NANOSECONDS.toMillis(writingNanos.sum()));
+    }
+}
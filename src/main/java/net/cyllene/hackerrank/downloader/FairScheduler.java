@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker threads shared by all accounts of a batch.
+ * <p>
+ * Every account submits its tasks into a lane of its own, workers take tasks from the lanes in turn.
+ * An account with thousands of submissions therefore does not hold back the ones with a few, and
+ * the number of threads does not grow with the number of accounts.
+ */
+class FairScheduler implements Closeable {
+    // Guarded by itself
+    private final Queue<Lane> ready = new ArrayDeque<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * @param threads number of worker threads
+     */
+    FairScheduler(int threads) {
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "batch-worker-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * @param name name of the account, for diagnostics
+     * @return executor running tasks of a single account, shutting it down does not affect other lanes
+     */
+    ExecutorService newLane(String name) {
+        return new Lane(name);
+    }
+
+    /**
+     * Stops the workers, tasks still waiting in lanes are never run
+     */
+    @Override
+    public void close() {
+        synchronized (ready) {
+            closed = true;
+            ready.notifyAll();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            Runnable task;
+            synchronized (ready) {
+                while (ready.isEmpty() && !closed) {
+                    try {
+                        ready.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                lane = ready.remove();
+                task = lane.tasks.remove();
+                lane.running++;
+                // Back to the end of the line, other lanes go first
+                if (!lane.tasks.isEmpty()) {
+                    ready.add(lane);
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Tasks report their failures through futures
+            } finally {
+                synchronized (ready) {
+                    lane.running--;
+                    ready.notifyAll();
+                }
+            }
+        }
+    }
+
+    private class Lane extends AbstractExecutorService {
+        private final String name;
+        // Guarded by the ready queue
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private int running;
+        private boolean shutdown;
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            synchronized (ready) {
+                if (shutdown || closed) {
+                    throw new RejectedExecutionException("Lane " + name + " is shut down");
+                }
+                tasks.add(command);
+                // A lane is in the ready queue as long as it has tasks
+                if (tasks.size() == 1) {
+                    ready.add(this);
+                }
+                ready.notifyAll();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            synchronized (ready) {
+                shutdown = true;
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            synchronized (ready) {
+                shutdown = true;
+                ready.remove(this);
+                List<Runnable> pending = new ArrayList<>(tasks);
+                tasks.clear();
+                ready.notifyAll();
+                return pending;
+            }
+        }
+
+        @Override
+        public boolean isShutdown() {
+            synchronized (ready) {
+                return shutdown;
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            synchronized (ready) {
+                return shutdown && tasks.isEmpty() && running == 0;
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (ready) {
+                while (!isTerminated()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(ready, remaining);
+                }
+                return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Lane " + name;
+        }
+    }
+}
@@ -16,42 +16,104 @@
 package net.cyllene.hackerrank.downloader;
 
 import lombok.RequiredArgsConstructor;
+import lombok.Setter;
 import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
+import net.cyllene.hackerrank.downloader.dto.CodeTarget;
+import net.cyllene.hackerrank.downloader.dto.JsonReaders;
 import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
+import net.cyllene.hackerrank.downloader.events.Events;
 import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
 import net.cyllene.hackerrank.downloader.exceptions.ExitWithHelpException;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
+import static net.cyllene.hackerrank.downloader.HttpClientConfiguration.httpAsyncClient;
 import static net.cyllene.hackerrank.downloader.HttpClientConfiguration.httpClient;
 
 @RequiredArgsConstructor
 public class HackerrankDownloader implements Runnable {
-    static final String SECRET_KEY = getSessionFromDotFile();
+    private static final String DESCRIPTION_DIRNAME = "problem_description";
+    private static final String SOLUTIONS_DIRNAME = "accepted_solutions";
+
     private final Settings settings;
     private final ChallengesRepository dc;
+    private final AtomicInteger failedDownloads = new AtomicInteger();
+    /**
+     * Set only when solutions are deduplicated
+     */
+    private ContentStore contentStore;
+    private OutputSink sink;
+    /**
+     * Set only when non-blocking engine is selected, it requests details instead of {@link #dc} then
+     */
+    @Setter
+    private AsyncChallengesRepository asyncRepository;
+    /**
+     * Runs downloads, a work-stealing pool of {@link Settings#getThreads()} threads, or a virtual thread per
+     * task with the virtual engine, is created by {@link #run()} if not set. Shut down at the end of the run.
+     */
+    @Setter
+    private ExecutorService workers;
+    /**
+     * Set only with the virtual engine, bounds requests in flight as the number of threads no longer does
+     */
+    private Semaphore requestPermits;
+    /**
+     * Submissions of challenges owned by the shard and the ones actually written, filled only in shard mode
+     */
+    private final SubmissionIndex assigned = new SubmissionIndex();
+    private final SubmissionIndex written = new SubmissionIndex();
+    /**
+     * Set only for the files layout, records written files so that an interrupted run can be resumed
+     */
+    private Journal journal;
+    /**
+     * What an interrupted run has written, filled only when resuming
+     */
+    private final Set<String> describedChallenges = new HashSet<>();
+    private final Set<Long> writtenSubmissions = new HashSet<>();
+    /**
+     * Downloads failed by this run, kept for {@code --retry-failed}
+     */
+    private final DeadLetters deadLetters = new DeadLetters();
 
     public static void main(String[] args) {
         try {
             // Parse and validate arguments, configure settings
             Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(args);
 
-            // Initialize data repository, inject dependencies
-            ChallengesRepository dc = ChallengesRepository.INSTANCE;
-            dc.setSettings(settings);
-            dc.setHttpClient(httpClient(SECRET_KEY));
-
-            // Initialize main class
-            HackerrankDownloader downloader = new HackerrankDownloader(settings, dc);
-
-            downloader.run();
+            download(settings);
         } catch (ExitWithHelpException e) {
             CommandLineDispatcher.INSTANCE.printHelp();
             System.exit(0);
@@ -61,117 +123,775 @@ public class HackerrankDownloader implements Runnable {
         }
     }
 
+    /**
+     * Wires services according to settings and runs the download
+     *
+     * @param settings program state
+     * @throws ExitWithErrorException download failed
+     */
+    static void download(Settings settings) {
+        if (settings.isMergeShards()) {
+            ShardMerger merger = new ShardMerger(settings.getOutputDir(), settings.isForcedFilesOverwrite(),
+                    settings.isVerbose());
+            merger.merge();
+            System.out.println(merger);
+            return;
+        }
+        if (settings.getEngine() == Settings.Engine.VIRTUAL && !VirtualThreads.isAvailable()) {
+            throw new ExitWithErrorException("Virtual engine needs JDK 21 or newer and the complete jar,"
+                    + " running on JDK " + System.getProperty("java.version"));
+        }
+        if (settings.getBatchFile() != null) {
+            BatchDownloader.download(settings);
+            return;
+        }
+        settings = settings.forShard();
+
+        String secretKey = getSessionFromDotFile();
+        Closeable recording = startRecording(settings);
+        warmUpJsonReaders();
+
+        // Initialize data repository, inject dependencies
+        ChallengesRepository dc = ChallengesRepository.INSTANCE;
+        dc.setSettings(settings);
+        dc.setHttpClient(httpClient(secretKey, settings));
+        ResponseCache cache = responseCache(settings);
+        dc.setResponseCache(cache);
+        SingleFlightCache<String, ChallengeDetails> challengeDetailsCache =
+                new SingleFlightCache<>(Settings.DETAILS_CACHE_ENTRIES);
+        dc.setChallengeDetailsCache(challengeDetailsCache);
+        RequestGovernor governor = new RequestGovernor(settings.getRateLimit(), settings.getMaxConnections(),
+                Settings.THROTTLED_REQUEST_RETRIES, settings.getRetries(), settings.isVerbose());
+        dc.setGovernor(governor);
+
+        // Initialize main class
+        HackerrankDownloader downloader = new HackerrankDownloader(settings, dc);
+
+        if (settings.getEngine() == Settings.Engine.ASYNC) {
+            try (AsyncChallengesRepository asyncDc = new AsyncChallengesRepository(
+                    httpAsyncClient(secretKey, settings), settings, governor)) {
+                asyncDc.setResponseCache(cache);
+                asyncDc.setChallengeDetailsCache(challengeDetailsCache);
+                downloader.setAsyncRepository(asyncDc);
+                downloader.run();
+            } catch (IOException e) {
+                throw new ExitWithErrorException(e);
+            }
+        } else {
+            downloader.run();
+        }
+
+        if (settings.isVerbose()) {
+            System.out.println(governor);
+            System.out.println(challengeDetailsCache);
+            if (cache != null) {
+                System.out.println(cache);
+            }
+        }
+        stopRecording(recording, settings);
+    }
+
+    /**
+     * Building of JSON readers takes about as long as building of the HTTP client, do both at once
+     */
+    static void warmUpJsonReaders() {
+        Thread warmUp = new Thread(JsonReaders::load, "json-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+    }
+
     @Override
     public void run() {
-        ensureOutputDirectoryIsAvailable();
+        long startedAt = System.nanoTime();
+        DeadLetters retried = loadDeadLetters();
+        if (retried != null && retried.isEmpty()) {
+            System.out.println("Nothing to retry in " + settings.getOutputDir());
+            return;
+        }
+        if (settings.getFormat() == Settings.Format.ZIP) {
+            ensureArchiveIsAvailable();
+        } else {
+            ensureOutputDirectoryIsAvailable();
+            replayJournal();
+            journal = openJournal();
+        }
+        Watermark previous = loadWatermark();
+        if (settings.isDeduplicated()) {
+            contentStore = new ContentStore(settings.getOutputDir().resolve(Settings.OBJECTS_DIRNAME));
+        }
+        sink = openSink();
 
-        Map<String, List<Long>> groupedSubmissionIds;
+        SubmissionSelector selector = settings.getSelection() == Settings.Selection.ALL ? null
+                : new SubmissionSelector(settings.getSelection());
+        Watermark newest;
+        if (settings.getEngine() == Settings.Engine.VIRTUAL) {
+            requestPermits = new Semaphore(settings.getThreads());
+        }
+        if (workers == null) {
+            workers = settings.getEngine() == Settings.Engine.VIRTUAL
+                    ? VirtualThreads.newThreadPerTaskExecutor("download")
+                    : new ForkJoinPool(settings.getThreads());
+        }
         try {
-            groupedSubmissionIds = dc.getSubmissionsList(settings.getOffset(), settings.getLimit());
-        } catch (IOException e) {
-            throw new ExitWithErrorException("Fatal Error: could not get submissions list.");
+            Set<String> knownChallenges = ConcurrentHashMap.newKeySet();
+            Queue<Future<?>> tasks = new ConcurrentLinkedQueue<>();
+            Consumer<SubmissionIndex> pageConsumer = page -> page.forEach((challengeSlug, submissionIds) -> {
+                if (settings.getShard() != null && !assign(challengeSlug, submissionIds)) {
+                    return;
+                }
+                // A challenge may span several pages, its description is needed only once
+                boolean withDescription = knownChallenges.add(challengeSlug)
+                        && !describedChallenges.contains(challengeSlug);
+                long[] remainingIds = writtenSubmissions.isEmpty() ? submissionIds
+                        : notWrittenYet(challengeSlug, submissionIds);
+                if (!withDescription && remainingIds.length == 0) {
+                    return;
+                }
+                submitChallenge(tasks, challengeSlug, remainingIds, withDescription);
+            });
+
+            try {
+                if (retried != null) {
+                    // Nothing is listed, only what failed is downloaded again
+                    newest = retried.getListing();
+                    submitDeadLetters(tasks, retried);
+                } else if (previous == Watermark.NONE) {
+                    newest = dc.getSubmissionsList(settings.getOffset(), settings.getLimit(), workers, selector,
+                            pageConsumer);
+                } else {
+                    newest = dc.getSubmissionsNewerThan(previous, settings.getLimit(), selector, pageConsumer);
+                }
+            } catch (IOException e) {
+                throw new ExitWithErrorException("Fatal Error: could not get submissions list.");
+            }
+            // With selection downloads start only when the whole listing is seen
+            if (selector != null && retried == null) {
+                pageConsumer.accept(selector.getSelected());
+            }
+            awaitAll(tasks);
+        } finally {
+            workers.shutdownNow();
+            closeSink();
+            closeJournal();
+        }
+
+        if (settings.getShard() != null) {
+            storeManifest(newest);
+        } else {
+            storeWatermark(newest.max(previous));
+            storeDeadLetters(settings.getOffset() == Settings.DEFAULT_OFFSET ? newest.max(previous) : Watermark.NONE);
         }
+        deleteJournalIfComplete();
 
-        for (Map.Entry<String, List<Long>> entry : groupedSubmissionIds.entrySet()) {
-            String challengeSlug = entry.getKey();
-            downloadAndSaveChallenge(challengeSlug, entry.getValue());
+        if (selector != null) {
+            System.out.println(selector);
         }
+        if (contentStore != null) {
+            System.out.println(contentStore);
+        }
+        if (settings.getFormat() == Settings.Format.ZIP || settings.isVerbose()) {
+            System.out.println(sink + ", " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt)
+                    + " ms in total");
+        }
+    }
+
+    /**
+     * Schedules download of a challenge with the chosen engine
+     *
+     * @param tasks           pending downloads, the new one is added
+     * @param submissionIds   submissions to download, may be empty
+     * @param withDescription download challenge description too
+     */
+    private void submitChallenge(Queue<Future<?>> tasks, String challengeSlug, long[] submissionIds,
+                                 boolean withDescription) {
+        if (asyncRepository != null) {
+            tasks.add(downloadAndSaveChallengeAsync(challengeSlug, submissionIds, withDescription));
+        } else {
+            tasks.add(workers.submit(() -> downloadAndSaveChallenge(challengeSlug, submissionIds, withDescription)));
+        }
+    }
+
+    /**
+     * Schedules downloads failed by the previous run, a challenge at a time
+     */
+    private void submitDeadLetters(Queue<Future<?>> tasks, DeadLetters retried) {
+        Set<String> descriptions = retried.getDescriptions();
+        retried.getSubmissions().forEach((challengeSlug, submissionIds) ->
+                submitChallenge(tasks, challengeSlug, submissionIds, descriptions.contains(challengeSlug)));
+        for (String challengeSlug : descriptions) {
+            if (retried.getSubmissions().getSubmissionIds(challengeSlug).length == 0) {
+                submitChallenge(tasks, challengeSlug, new long[0], true);
+            }
+        }
+        System.out.println("Retrying " + retried.size() + " failed downloads");
     }
 
-    private void downloadAndSaveChallenge(String challengeSlug, Iterable<Long> submissionIds) {
-        ChallengeDetails currentChallenge;
+    /**
+     * @return failures of the previous run if retrying them, null otherwise
+     */
+    private DeadLetters loadDeadLetters() {
+        if (!settings.isRetryFailed()) {
+            return null;
+        }
         try {
-            currentChallenge = dc.getChallengeDetails(challengeSlug);
+            DeadLetters retried = DeadLetters.load(settings.getOutputDir());
+            return retried == null ? new DeadLetters() : retried;
         } catch (IOException e) {
-            if (settings.isVerbose()) {
-                e.printStackTrace();
-            }
-            System.out.println("Error: could not get challenge info for: " + challengeSlug);
-            return;
+            throw new ExitWithErrorException("Unable to read failed downloads: " + e.getMessage());
         }
+    }
 
-        dumpChallengeToFiles(currentChallenge);
+    /**
+     * Keeps failures of this run for {@code --retry-failed}, or removes the ones of a previous run if nothing failed.
+     * Archives and shards are skipped, failures of a shard are listed in its manifest.
+     *
+     * @param listing newest submission listed, {@link Watermark#NONE} if the listing was partial
+     */
+    private void storeDeadLetters(Watermark listing) {
+        if (settings.getFormat() == Settings.Format.ZIP) {
+            return;
+        }
+        try {
+            if (deadLetters.isEmpty()) {
+                DeadLetters.delete(settings.getOutputDir());
+                return;
+            }
+            deadLetters.store(settings.getOutputDir(), listing);
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to store failed downloads: " + e.getMessage());
+        }
+        System.err.println(deadLetters.size() + " downloads failed, download them again with --retry-failed");
+    }
 
-        for (Long submissionId : submissionIds) {
-            SubmissionDetails submissionSummary;
+    /**
+     * @return destination of downloaded files according to the chosen format
+     */
+    private OutputSink openSink() {
+        OutputSink sink;
+        if (settings.getFormat() == Settings.Format.FILES) {
+            sink = new DirectorySink(settings.getOutputDir(), contentStore, journal, settings.isFsync(),
+                    settings.isVerbose());
+        } else {
             try {
-                submissionSummary = dc.getSubmissionDetails(submissionId);
-
-                dumpSubmissionToFile(challengeSlug, submissionSummary);
+                sink = new ZipSink(settings.getArchivePath(), settings.isFsync(), settings.isVerbose());
             } catch (IOException e) {
-                if (settings.isVerbose()) {
-                    e.printStackTrace();
+                throw new ExitWithErrorException("Unable to create archive " + settings.getArchivePath()
+                        + ": " + e.getMessage());
+            }
+        }
+        return settings.getWriteQueue() > 0 ? new WriteBehindSink(sink, settings.getWriteQueue()) : sink;
+    }
+
+    /**
+     * Collects files written by an interrupted run, if resuming
+     */
+    private void replayJournal() {
+        if (!settings.isResume()) {
+            return;
+        }
+        List<Path> paths;
+        try {
+            paths = Journal.load(settings.getOutputDir());
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to read journal: " + e.getMessage());
+        }
+        if (paths == null) {
+            System.out.println("No interrupted run found in " + settings.getOutputDir() + ", downloading everything");
+            return;
+        }
+
+        for (Path path : paths) {
+            if (path.getNameCount() != 3) {
+                continue;
+            }
+            String kind = path.getName(1).toString();
+            if (kind.equals(DESCRIPTION_DIRNAME)) {
+                describedChallenges.add(path.getName(0).toString());
+            } else if (kind.equals(SOLUTIONS_DIRNAME)) {
+                String fileName = path.getName(2).toString();
+                try {
+                    writtenSubmissions.add(Long.parseLong(fileName.substring(0, fileName.indexOf('.'))));
+                } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    // Not written by the downloader
                 }
-                System.err.println("Error: could not get submission info for: " + submissionId);
-                return;
             }
         }
+        System.out.println("Resuming: " + describedChallenges.size() + " challenge descriptions and "
+                + writtenSubmissions.size() + " submissions are already downloaded");
     }
 
     /**
-     * Creates necessary directories, stores each challenge description in a file
-     *
-     * @param currentChallenge Data that describes a single challenge: id, problem text
+     * Starts a new journal, or continues the journal of an interrupted run when resuming
      */
-    private void dumpChallengeToFiles(ChallengeDetails currentChallenge) {
-        final Path sChallengePath = settings.getOutputDir().resolve(currentChallenge.getSlug());
-        final Path sDescriptionPath = sChallengePath.resolve("problem_description");
+    private Journal openJournal() {
+        try {
+            Files.createDirectories(settings.getOutputDir());
+            return Journal.open(settings.getOutputDir(), settings.isResume() || settings.isRetryFailed());
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to open journal: " + e.getMessage());
+        }
+    }
 
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
         try {
-            Files.createDirectories(sDescriptionPath);
+            journal.close();
         } catch (IOException e) {
-            throw new ExitWithErrorException("Unable to create problems directory for challenge: " + currentChallenge.getSlug());
+            throw new ExitWithErrorException("Unable to close journal: " + e.getMessage());
         }
+    }
 
-        String htmlBody = currentChallenge.getBodyHtml();
-        String temporaryHtmlTemplate = "<html></body>" + htmlBody + "</body></html>";
+    /**
+     * Nothing is left to resume after a run without failures
+     */
+    private void deleteJournalIfComplete() {
+        if (journal == null || failedDownloads.get() > 0) {
+            return;
+        }
+        try {
+            journal.delete();
+        } catch (IOException e) {
+            System.err.println("Warning: unable to remove journal: " + e.getMessage());
+        }
+    }
 
-        Path problemFilePath = sDescriptionPath.resolve("english.html");
-        if (settings.isVerbose()) {
-            System.out.println("Writing: " + problemFilePath);
+    /**
+     * @return submissions not written by the interrupted run, the rest is treated as written by this one
+     */
+    private long[] notWrittenYet(String challengeSlug, long[] submissionIds) {
+        return Arrays.stream(submissionIds)
+                .filter(submissionId -> {
+                    if (!writtenSubmissions.contains(submissionId)) {
+                        return true;
+                    }
+                    submissionWritten(challengeSlug, submissionId);
+                    return false;
+                })
+                .toArray();
+    }
+
+    private void closeSink() {
+        try {
+            sink.close();
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to finish writing output: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return watermark left by a previous run if running in sync mode or retrying failures,
+     * {@link Watermark#NONE} otherwise
+     */
+    private Watermark loadWatermark() {
+        if (!settings.isSyncMode() && !settings.isRetryFailed()) {
+            return Watermark.NONE;
+        }
+        try {
+            Watermark watermark = Watermark.load(settings.getOutputDir());
+            if (settings.isRetryFailed()) {
+                return watermark;
+            }
+            if (watermark == Watermark.NONE) {
+                System.out.println("No previous sync found in " + settings.getOutputDir() + ", downloading everything");
+            } else if (settings.isVerbose()) {
+                System.out.println("Syncing submissions newer than " + watermark.getId());
+            }
+            return watermark;
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to read sync state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remembers the newest downloaded submission for the next sync. Skipped if some downloads failed,
+     * otherwise the next sync would never retry them. Also skipped if newer submissions were skipped by offset,
+     * and for archives, which cannot be synced.
+     */
+    private void storeWatermark(Watermark newest) {
+        if (settings.getOffset() != Settings.DEFAULT_OFFSET || newest == Watermark.NONE
+                || settings.getFormat() == Settings.Format.ZIP) {
+            return;
+        }
+        if (failedDownloads.get() > 0) {
+            System.err.println("Warning: " + failedDownloads.get()
+                    + " downloads failed, sync state is not updated. Next --sync will retry them.");
+            return;
+        }
+        try {
+            newest.store(settings.getOutputDir());
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to store sync state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the challenge belongs to the shard of this run, its submissions are remembered then
+     */
+    private boolean assign(String challengeSlug, long[] submissionIds) {
+        if (!settings.getShard().owns(challengeSlug)) {
+            return false;
+        }
+        synchronized (assigned) {
+            for (long submissionId : submissionIds) {
+                assigned.add(challengeSlug, submissionId);
+            }
         }
+        return true;
+    }
+
+    /**
+     * Remembers a written submission for the shard manifest
+     */
+    private void submissionWritten(String challengeSlug, long submissionId) {
+        if (settings.getShard() == null) {
+            return;
+        }
+        synchronized (written) {
+            written.add(challengeSlug, submissionId);
+        }
+    }
 
+    /**
+     * Marks the staging directory as finished, submissions assigned to the shard but not written are listed as failed
+     *
+     * @param listing newest submission listed
+     */
+    private void storeManifest(Watermark listing) {
+        SubmissionIndex failed = new SubmissionIndex();
+        assigned.forEach((challengeSlug, submissionIds) -> {
+            Set<Long> writtenIds = Arrays.stream(written.getSubmissionIds(challengeSlug)).boxed()
+                    .collect(Collectors.toSet());
+            for (long submissionId : submissionIds) {
+                if (!writtenIds.contains(submissionId)) {
+                    failed.add(challengeSlug, submissionId);
+                }
+            }
+        });
         try {
-            Files.write(problemFilePath, temporaryHtmlTemplate.getBytes(StandardCharsets.UTF_8.name()));
+            new ShardManifest(settings.getShard(), listing, written, failed).store(settings.getOutputDir());
         } catch (IOException e) {
-            throw new ExitWithErrorException(e);
+            throw new ExitWithErrorException("Unable to store shard manifest: " + e.getMessage());
         }
+        System.out.println("Shard " + settings.getShard() + ": " + written.getSubmissionCount()
+                + " submissions written to " + settings.getOutputDir() + ", " + failed.getSubmissionCount()
+                + " failed. Combine finished shards with --merge");
     }
 
     /**
-     * Creates necessary directories, stores each submission in a file named {submission_id}.{programming_language}
+     * Waits for every submitted download to finish, rethrowing the first fatal error in the caller thread
      *
-     * @param challengeSlug     Challenge short code suitable for directory naming
-     * @param submissionDetails Data that describes a single submission: id, type, source, etc.
+     * @param tasks pending downloads
      */
-    private void dumpSubmissionToFile(String challengeSlug, SubmissionDetails submissionDetails) {
-        final Path sChallengePath = settings.getOutputDir().resolve(challengeSlug);
-        final Path sSolutionPath = sChallengePath.resolve("accepted_solutions");
+    private static void awaitAll(Iterable<Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExitWithErrorException("Interrupted while waiting for downloads to finish");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw original((RuntimeException) e.getCause());
+                }
+                throw new ExitWithErrorException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * A fork-join pool rethrows an exception thrown on another worker as a copy with the original as the cause
+     *
+     * @return the exception as it was thrown
+     */
+    private static RuntimeException original(RuntimeException e) {
+        return e instanceof ExitWithErrorException && e.getCause() instanceof ExitWithErrorException
+                ? (ExitWithErrorException) e.getCause() : e;
+    }
+
+    /**
+     * Failure of the description or of a submission is recorded and does not affect the rest of the challenge
+     */
+    private void downloadAndSaveChallenge(String challengeSlug, long[] submissionIds, boolean withDescription) {
+        if (withDescription) {
+            takePermit();
+            try {
+                dumpChallengeToFiles(dc.getChallengeDetails(challengeSlug));
+            } catch (IOException e) {
+                deadLetters.descriptionFailed(challengeSlug,
+                        reportFailure(e, "Error: could not get challenge info for: " + challengeSlug));
+            } finally {
+                releasePermit();
+            }
+        }
+
+        if (settings.getEngine() == Settings.Engine.VIRTUAL) {
+            forkSubmissions(challengeSlug, submissionIds);
+            return;
+        }
+        if (ForkJoinTask.getPool() == workers) {
+            stealableSubmissions(challengeSlug, submissionIds);
+            return;
+        }
+        for (long submissionId : submissionIds) {
+            downloadAndSaveSubmission(challengeSlug, submissionId);
+        }
+    }
 
+    /**
+     * Downloads every submission of a challenge on a virtual thread of its own and waits for all of them.
+     * A fatal error cancels the ones still running and is rethrown, so no download outlives its challenge.
+     */
+    private void forkSubmissions(String challengeSlug, long[] submissionIds) {
+        List<Future<?>> children = new ArrayList<>(submissionIds.length);
         try {
-            Files.createDirectories(sSolutionPath);
+            for (long submissionId : submissionIds) {
+                children.add(workers.submit(() -> downloadAndSaveSubmission(challengeSlug, submissionId)));
+            }
+            awaitAll(children);
+        } catch (RuntimeException e) {
+            children.forEach(child -> child.cancel(true));
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads every submission of a challenge as a task of its own in the work-stealing pool. Idle workers
+     * take them over, so a challenge with many submissions does not keep a single worker busy at the end
+     * of the run. The caller runs some of them itself while waiting for the rest.
+     */
+    private void stealableSubmissions(String challengeSlug, long[] submissionIds) {
+        List<ForkJoinTask<Boolean>> children = new ArrayList<>(submissionIds.length);
+        for (long submissionId : submissionIds) {
+            children.add(ForkJoinTask.adapt(() -> downloadAndSaveSubmission(challengeSlug, submissionId)));
+        }
+        try {
+            ForkJoinTask.invokeAll(children);
+        } catch (ExitWithErrorException e) {
+            throw original(e);
+        }
+    }
+
+    /**
+     * @return false if the submission could not be downloaded, the failure is recorded
+     */
+    private boolean downloadAndSaveSubmission(String challengeSlug, long submissionId) {
+        SubmissionDetails submissionSummary;
+        takePermit();
+        try {
+            submissionSummary = dc.getSubmissionDetails(submissionId,
+                    (submission, code) -> streamSubmissionToFile(challengeSlug, submission, code));
         } catch (IOException e) {
-            throw new ExitWithErrorException("Unable to create solutions directory for challenge: " + challengeSlug);
+            deadLetters.submissionFailed(challengeSlug, submissionId,
+                    reportFailure(e, "Error: could not get submission info for: " + submissionId));
+            return false;
+        } finally {
+            releasePermit();
         }
 
-        String solutionFilename = String.format("%d.%s", submissionDetails.getId(), submissionDetails.getLanguage());
-        Path solutionFilePath = sSolutionPath.resolve(solutionFilename);
+        dumpSubmissionToFile(challengeSlug, submissionSummary);
+        submissionWritten(challengeSlug, submissionId);
+        return true;
+    }
 
+    /**
+     * Waits for a request permit, if requests in flight are bounded by permits
+     */
+    private void takePermit() {
+        if (requestPermits == null) {
+            return;
+        }
+        try {
+            requestPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExitWithErrorException("Interrupted while waiting for a request permit");
+        }
+    }
+
+    private void releasePermit() {
+        if (requestPermits != null) {
+            requestPermits.release();
+        }
+    }
+
+    /**
+     * Same as {@link #downloadAndSaveChallenge}, but with non-blocking engine. The description and all
+     * submissions of the challenge are requested at once, files are written on decoder threads of the engine.
+     *
+     * @return completes when everything is written, exceptionally only on fatal errors
+     */
+    private CompletableFuture<Void> downloadAndSaveChallengeAsync(String challengeSlug, long[] submissionIds,
+                                                                  boolean withDescription) {
+        List<CompletableFuture<Void>> downloads = new ArrayList<>(submissionIds.length + 1);
+        if (withDescription) {
+            downloads.add(asyncRepository.getChallengeDetails(challengeSlug)
+                    .thenAccept(this::dumpChallengeToFiles)
+                    .exceptionally(e -> {
+                        deadLetters.descriptionFailed(challengeSlug,
+                                reportFailure(e, "Error: could not get challenge info for: " + challengeSlug));
+                        return null;
+                    }));
+        }
+        for (long submissionId : submissionIds) {
+            downloads.add(asyncRepository.getSubmissionDetails(submissionId,
+                    (submission, code) -> streamSubmissionToFile(challengeSlug, submission, code))
+                    .thenAccept(submissionDetails -> {
+                        dumpSubmissionToFile(challengeSlug, submissionDetails);
+                        submissionWritten(challengeSlug, submissionId);
+                    })
+                    .exceptionally(e -> {
+                        deadLetters.submissionFailed(challengeSlug, submissionId,
+                                reportFailure(e, "Error: could not get submission info for: " + submissionId));
+                        return null;
+                    }));
+        }
+        return CompletableFuture.allOf(downloads.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Counts a failed download, the run goes on
+     *
+     * @return reason of the failure
+     * @throws ExitWithErrorException if the failure is fatal
+     */
+    private String reportFailure(Throwable e, String message) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof ExitWithErrorException) {
+            throw (ExitWithErrorException) cause;
+        }
+        if (cause instanceof UncheckedIOException) {
+            cause = cause.getCause();
+        }
         if (settings.isVerbose()) {
-            System.out.println("Writing: " + solutionFilePath);
+            cause.printStackTrace();
         }
+        System.err.println(message);
+        failedDownloads.incrementAndGet();
+        return cause.getMessage() == null ? cause.getClass().getSimpleName()
+                : cause.getClass().getSimpleName() + ": " + cause.getMessage();
+    }
+
+    /**
+     * Stores challenge description in a file
+     *
+     * @param currentChallenge Data that describes a single challenge: id, problem text
+     */
+    private void dumpChallengeToFiles(ChallengeDetails currentChallenge) {
+        String htmlBody = currentChallenge.getBodyHtml();
+        String temporaryHtmlTemplate = "<html></body>" + htmlBody + "</body></html>";
+
+        Path problemFilePath = Paths.get(currentChallenge.getSlug(), DESCRIPTION_DIRNAME, "english.html");
+        writeToSink(problemFilePath, temporaryHtmlTemplate.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stores each submission in a file named {submission_id}.{programming_language}
+     *
+     * @param challengeSlug     Challenge short code suitable for directory naming
+     * @param submissionDetails Data that describes a single submission: id, type, source, etc.,
+     *                          nothing is written if the code was already streamed to the file
+     */
+    private void dumpSubmissionToFile(String challengeSlug, SubmissionDetails submissionDetails) {
+        if (submissionDetails.getCode() == null) {
+            return;
+        }
+        writeToSink(solutionFilePath(challengeSlug, submissionDetails),
+                submissionDetails.getCode().getBytes(StandardCharsets.UTF_8));
+    }
 
+    /**
+     * Same as {@link #dumpSubmissionToFile}, but the code is encoded and written straight from the buffer
+     * of the parser, no further copy of the whole code is made
+     *
+     * @param submission fields of the submission preceding the code
+     * @param code       source code which is not read yet
+     * @throws IOException code could not be read from the response
+     */
+    private void streamSubmissionToFile(String challengeSlug, SubmissionDetails submission,
+                                        CodeTarget.Source code) throws IOException {
+        writeToSink(solutionFilePath(challengeSlug, submission), out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            code.copyTo(writer);
+            writer.flush();
+        });
+    }
+
+    private static Path solutionFilePath(String challengeSlug, SubmissionDetails submissionDetails) {
+        String solutionFilename = String.format("%d.%s", submissionDetails.getId(), submissionDetails.getLanguage());
+        return Paths.get(challengeSlug, SOLUTIONS_DIRNAME, solutionFilename);
+    }
+
+    /**
+     * @param path path relative to the root of the output
+     * @throws ExitWithErrorException file could not be written, there is no point in downloading the rest
+     */
+    private void writeToSink(Path path, byte[] content) {
         try {
-            Files.write(solutionFilePath, submissionDetails.getCode().getBytes(StandardCharsets.UTF_8.name()));
+            sink.write(path, content);
+        } catch (IOException e) {
+            throw writeFailure(path, e);
+        }
+    }
+
+    /**
+     * Same as {@link #writeToSink(Path, byte[])} for content produced while it is being written.
+     * Failures of the sink are fatal, failures of the content are not.
+     *
+     * @throws IOException content failed
+     */
+    private void writeToSink(Path path, OutputSink.Content content) throws IOException {
+        AtomicBoolean producing = new AtomicBoolean();
+        try {
+            sink.stream(path, out -> {
+                producing.set(true);
+                content.writeTo(new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        try {
+                            out.write(b, off, len);
+                        } catch (IOException e) {
+                            throw writeFailure(path, e);
+                        }
+                    }
+
+                    @Override
+                    public void write(int b) {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void flush() {
+                        try {
+                            out.flush();
+                        } catch (IOException e) {
+                            throw writeFailure(path, e);
+                        }
+                    }
+                });
+                producing.set(false);
+            });
         } catch (IOException e) {
-            throw new ExitWithErrorException(e);
+            if (producing.get()) {
+                throw e;
+            }
+            throw writeFailure(path, e);
+        }
+    }
+
+    private ExitWithErrorException writeFailure(Path path, IOException e) {
+        if (settings.isVerbose()) {
+            e.printStackTrace();
         }
+        return new ExitWithErrorException("Unable to write " + path + ": " + e.getMessage());
     }
 
     /**
      * Output directory logic:
      * <ol>
-     * <li> if directory exists, ask for -f option to overwrite, quit with message
+     * <li> if directory exists, ask for -f option to overwrite, -s option to sync, --resume option
+     * to resume or --retry-failed option to retry, quit with message
      * <li> having -f flag set, check if user has access to a parent directory, exit with error if denied
      * <li> if everything is OK, use that path for output
      * </ol>
@@ -182,7 +902,13 @@ public class HackerrankDownloader implements Runnable {
             System.out.println("Checking if output dir " + desiredDirectory + " is available");
         }
         if (Files.exists(desiredDirectory) && Files.isDirectory(desiredDirectory)) {
-            if (settings.isForcedFilesOverwrite()) {
+            if (settings.isResume()) {
+                System.out.println("Resuming in existing directory: " + desiredDirectory);
+            } else if (settings.isRetryFailed()) {
+                System.out.println("Retrying failed downloads in existing directory: " + desiredDirectory);
+            } else if (settings.isSyncMode()) {
+                System.out.println("Syncing into existing directory: " + desiredDirectory);
+            } else if (settings.isForcedFilesOverwrite()) {
                 System.out.println("WARNING!"
                         + System.lineSeparator()
                         + "--force flag is set. Overwriting directory: "
@@ -190,7 +916,9 @@ public class HackerrankDownloader implements Runnable {
                         + "WARNING!");
             } else {
                 throw new ExitWithErrorException("Directory exists: " + desiredDirectory
-                        + ", set the --force flag if you are sure. May lead to data loss, be careful.");
+                        + ", set the --sync flag to add new submissions to it, the --resume flag to finish"
+                        + " an interrupted run in it"
+                        + " or the --force flag if you are sure. May lead to data loss, be careful.");
             }
         }
 
@@ -199,6 +927,72 @@ public class HackerrankDownloader implements Runnable {
         }
     }
 
+    /**
+     * Same as for output directory: existing archive is replaced only with -f option
+     */
+    private void ensureArchiveIsAvailable() {
+        Path archive = settings.getArchivePath();
+        if (Files.exists(archive)) {
+            if (!settings.isForcedFilesOverwrite()) {
+                throw new ExitWithErrorException("Archive exists: " + archive
+                        + ", set the --force flag if you are sure. May lead to data loss, be careful.");
+            }
+            System.out.println("WARNING!"
+                    + System.lineSeparator()
+                    + "--force flag is set. Overwriting archive: "
+                    + archive + System.lineSeparator()
+                    + "WARNING!");
+        }
+
+        if ((Files.exists(archive) && !Files.isWritable(archive)) || !Files.isWritable(archive.getParent())) {
+            throw new ExitWithErrorException("Fatal error: " + archive + " cannot be created or modified. Check permissions.");
+        }
+    }
+
+    /**
+     * @return running flight recording if requested, null otherwise
+     */
+    static Closeable startRecording(Settings settings) {
+        if (settings.getJfrFile() == null) {
+            return null;
+        }
+        try {
+            return Events.startRecording(settings.getJfrFile());
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to start flight recording: " + e.getMessage());
+        }
+    }
+
+    static void stopRecording(Closeable recording, Settings settings) {
+        if (recording == null) {
+            return;
+        }
+        try {
+            recording.close();
+            System.out.println("Flight recording written to " + settings.getJfrFile());
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to write flight recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return cache for challenge descriptions, or null if it is disabled or unavailable
+     */
+    static ResponseCache responseCache(Settings settings) {
+        if (!settings.isCacheEnabled()) {
+            return null;
+        }
+        try {
+            return new ResponseCache(settings.getCacheDir(),
+                    TimeUnit.HOURS.toMillis(settings.getCacheTtl()),
+                    settings.getCacheSize() * 1024L * 1024L);
+        } catch (IOException e) {
+            System.err.println("Warning: cache directory " + settings.getCacheDir()
+                    + " is not accessible, running without cache");
+            return null;
+        }
+    }
+
     /**
      * Gets a secret key from configuration file in user.home.
      * The secret key is a _hrank_session variable stored in cookies by server.
@@ -206,23 +1000,20 @@ public class HackerrankDownloader implements Runnable {
      * you should login somewhere else and then provide this value in the config.
      *
      * @return String representing a _hrank_session id, about 430 characters long.
+     * @throws ExitWithErrorException file is missing or empty
      */
     private static String getSessionFromDotFile() {
         final String confPathStr = System.getProperty("user.home") + File.separator + Settings.KEY_FILENAME;
         final Path confPath = Paths.get(confPathStr);
-        String result = null;
         try {
-            result = Files.readAllLines(confPath, StandardCharsets.US_ASCII).get(0);
-        } catch (IOException e) {
-            System.err.println("Fatal Error: Unable to open configuration file " + confPathStr
+            return Files.readAllLines(confPath, StandardCharsets.US_ASCII).get(0);
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new ExitWithErrorException("Fatal Error: Unable to open configuration file " + confPathStr
                     + System.lineSeparator() + "File might be missing, empty or inaccessible by user."
                     + System.lineSeparator() + "It must contain a single ASCII line, a value of \""
                     + Settings.COOKIE_NAME + "\" cookie variable,"
                     + System.lineSeparator() + "which length is about 430 symbols.");
-            System.exit(1);
         }
-
-        return result;
     }
 
 }
\ No newline at end of file
@@ -15,34 +15,170 @@
  */
 package net.cyllene.hackerrank.downloader;
 
+import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sort of a bean factory.
  * <p>
  * Creates a configured {@link HttpClient} to be injected into {@link ChallengesRepository}
+ * or {@link AsyncChallengesRepository}
  */
 class HttpClientConfiguration {
-    static HttpClient httpClient(String secretKey) {
+    /**
+     * Creates a client backed by a connection pool. Connections are kept alive between requests,
+     * idle ones are evicted in background, and every stage of a request is limited by a timeout,
+     * so a single stalled socket cannot hang the whole run.
+     *
+     * @param secretKey session cookie value
+     * @param settings  pool limits and timeouts
+     * @return thread-safe client
+     */
+    static HttpClient httpClient(String secretKey, Settings settings) {
+        return httpClientBuilder(settings)
+                .setDefaultCookieStore(cookieStore(secretKey))
+                .build();
+    }
+
+    /**
+     * Same as {@link #httpClient(String, Settings)}, but without a session of its own. Requests of every account
+     * of a batch share the pool and carry the account's cookies in {@link #context(CookieStore)}.
+     *
+     * @param settings pool limits and timeouts
+     * @return thread-safe client
+     */
+    static HttpClient httpClient(Settings settings) {
+        return httpClientBuilder(settings).build();
+    }
+
+    private static HttpClientBuilder httpClientBuilder(Settings settings) {
+        return HttpClientBuilder.create()
+                .setDefaultRequestConfig(requestConfig(settings))
+                .setConnectionManager(connectionManager(settings))
+                .setKeepAliveStrategy(HttpClientConfiguration::keepAliveDuration)
+                .evictExpiredConnections()
+                .evictIdleConnections(Settings.IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a non-blocking client for {@link AsyncChallengesRepository}. A couple of I/O threads
+     * serve all connections of the pool, limits and timeouts are the same as for the blocking client.
+     * The client is started and must be closed by the caller.
+     *
+     * @param secretKey session cookie value
+     * @param settings  pool limits and timeouts
+     * @return started thread-safe client
+     * @throws ExitWithErrorException I/O reactor could not be created
+     */
+    static CloseableHttpAsyncClient httpAsyncClient(String secretKey, Settings settings) {
+        return httpAsyncClient(cookieStore(secretKey), settings);
+    }
+
+    /**
+     * Same as {@link #httpAsyncClient(String, Settings)}, but without a session of its own,
+     * see {@link #httpClient(Settings)}
+     */
+    static CloseableHttpAsyncClient httpAsyncClient(Settings settings) {
+        return httpAsyncClient(new BasicCookieStore(), settings);
+    }
+
+    private static CloseableHttpAsyncClient httpAsyncClient(CookieStore cookieStore, Settings settings) {
+        IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(Settings.IO_THREADS)
+                .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(settings.getConnectTimeout()))
+                .setSoTimeout((int) TimeUnit.SECONDS.toMillis(settings.getReadTimeout()))
+                .setSoKeepAlive(true)
+                .build();
+
+        PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+        } catch (IOReactorException e) {
+            throw new ExitWithErrorException(e);
+        }
+        connectionManager.setMaxTotal(settings.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(Math.min(settings.getMaxConnectionsPerRoute(), settings.getMaxConnections()));
+
+        CloseableHttpAsyncClient client = HttpAsyncClientBuilder.create()
+                .setDefaultRequestConfig(requestConfig(settings))
+                .setDefaultCookieStore(cookieStore)
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(HttpClientConfiguration::keepAliveDuration)
+                .build();
+        client.start();
+        return client;
+    }
+
+    /**
+     * @param secretKey session cookie value
+     * @return cookies of a single account
+     */
+    static CookieStore cookieStore(String secretKey) {
         BasicCookieStore cookieStore = new BasicCookieStore();
         BasicClientCookie cookie = new BasicClientCookie(Settings.COOKIE_NAME, secretKey);
         cookie.setDomain(Settings.DOMAIN);
         cookie.setPath("/");
         cookieStore.addCookie(cookie);
+        return cookieStore;
+    }
+
+    /**
+     * @param cookieStore cookies of the account making the request
+     * @return context of a single request to a shared client, contexts are not thread-safe
+     */
+    static HttpClientContext context(CookieStore cookieStore) {
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(cookieStore);
+        return context;
+    }
 
-        RequestConfig customRequestConfig = RequestConfig.custom()
+    private static RequestConfig requestConfig(Settings settings) {
+        return RequestConfig.custom()
                 .setContentCompressionEnabled(true)
                 .setCookieSpec(CookieSpecs.STANDARD)
+                .setConnectTimeout((int) TimeUnit.SECONDS.toMillis(settings.getConnectTimeout()))
+                .setSocketTimeout((int) TimeUnit.SECONDS.toMillis(settings.getReadTimeout()))
+                .setConnectionRequestTimeout((int) TimeUnit.SECONDS.toMillis(settings.getRequestTimeout()))
                 .build();
+    }
 
-        return HttpClientBuilder.create()
-                .setDefaultRequestConfig(customRequestConfig)
-                .setDefaultCookieStore(cookieStore)
-                .build();
+    /**
+     * Default per-route limit of 2 would serialize requests of concurrent workers,
+     * since all of them go to the same host.
+     */
+    private static PoolingHttpClientConnectionManager connectionManager(Settings settings) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(settings.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(Math.min(settings.getMaxConnectionsPerRoute(), settings.getMaxConnections()));
+        return connectionManager;
+    }
+
+    /**
+     * Honors Keep-Alive header sent by server, but never keeps a connection longer than it
+     * would be allowed to stay idle, otherwise it is reused forever.
+     */
+    private static long keepAliveDuration(HttpResponse response, HttpContext context) {
+        long idleLimit = TimeUnit.SECONDS.toMillis(Settings.IDLE_CONNECTION_TIMEOUT);
+        long serverDuration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+        return serverDuration > 0 ? Math.min(serverDuration, idleLimit) : idleLimit;
     }
 }
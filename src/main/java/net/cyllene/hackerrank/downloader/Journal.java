@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only record of files completely written into an output directory.
+ * <p>
+ * A file is recorded only after it is renamed into place, so every recorded file is whole. The journal
+ * of an interrupted run is replayed by {@code --resume}, which skips what is recorded. A record is
+ * a single line with a path relative to the output directory, the last line torn by a crash is ignored.
+ * The journal is removed once a run completes without failures.
+ */
+class Journal implements Closeable {
+    private final Path file;
+    private final FileChannel channel;
+
+    private Journal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * @param directory output directory, must exist
+     * @param append    keep records of the previous run, otherwise they are discarded
+     * @return journal ready for appending
+     * @throws IOException journal could not be opened
+     */
+    static Journal open(Path directory, boolean append) throws IOException {
+        Path file = directory.resolve(Settings.JOURNAL_FILENAME);
+        // A torn record is cut off, otherwise it would merge with the first new one
+        long keep = append && Files.exists(file) ? completeLength(Files.readAllBytes(file)) : 0;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.truncate(keep);
+            channel.position(keep);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new Journal(file, channel);
+    }
+
+    /**
+     * @param directory output directory
+     * @return paths recorded by previous runs, relative to the directory, null if there is no journal
+     * @throws IOException journal exists but could not be read
+     */
+    static List<Path> load(Path directory) throws IOException {
+        Path file = directory.resolve(Settings.JOURNAL_FILENAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        List<Path> paths = new ArrayList<>();
+        for (String line : new String(content, 0, completeLength(content), StandardCharsets.UTF_8).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                paths.add(Paths.get(line));
+            } catch (InvalidPathException e) {
+                throw new IOException("Malformed journal " + file + ": " + line, e);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return length of complete records, everything after the last line break was being written
+     * when the run was interrupted
+     */
+    private static int completeLength(byte[] content) {
+        int end = content.length;
+        while (end > 0 && content[end - 1] != '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Records a file which is completely written. Safe to call from several threads.
+     *
+     * @param path path relative to the output directory
+     * @throws IOException record could not be appended
+     */
+    void record(Path path) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((path + "\n").getBytes(StandardCharsets.UTF_8));
+        // A single write per record, so records of concurrent writers never interleave
+        synchronized (channel) {
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+        }
+    }
+
+    /**
+     * Makes records durable, to be called after the recorded files are synced
+     *
+     * @throws IOException journal could not be synced
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes and removes the journal, nothing is left to resume
+     *
+     * @throws IOException journal could not be removed
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+}
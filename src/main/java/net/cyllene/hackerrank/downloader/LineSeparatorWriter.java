@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Replaces \n with another line separator on the fly, without buffering
+ */
+class LineSeparatorWriter extends FilterWriter {
+    private final String separator;
+
+    LineSeparatorWriter(Writer out, String separator) {
+        super(out);
+        this.separator = separator;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (c == '\n') {
+            out.write(separator);
+        } else {
+            out.write(c);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int start = off;
+        for (int i = off; i < off + len; i++) {
+            if (cbuf[i] == '\n') {
+                out.write(cbuf, start, i - start);
+                out.write(separator);
+                start = i + 1;
+            }
+        }
+        out.write(cbuf, start, off + len - start);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int start = off;
+        for (int i = str.indexOf('\n', off); i >= 0 && i < off + len; i = str.indexOf('\n', start)) {
+            out.write(str, start, i - start);
+            out.write(separator);
+            start = i + 1;
+        }
+        out.write(str, start, off + len - start);
+    }
+}
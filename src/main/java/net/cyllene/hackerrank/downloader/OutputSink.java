@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Destination of downloaded challenges and solutions.
+ * <p>
+ * Paths are relative to the root of the output, e.g. {@code slug/accepted_solutions/1.java}.
+ * Implementations must accept writes from several threads.
+ */
+interface OutputSink extends Closeable {
+    /**
+     * Stores a file, replacing the previous one with the same path if the sink allows that
+     *
+     * @param path    path relative to the root of the output
+     * @param content data to be written
+     * @throws IOException file could not be written
+     */
+    void write(Path path, byte[] content) throws IOException;
+
+    /**
+     * Stores a file whose content is produced while it is being written, e.g. copied from a response.
+     * Sinks which can write a file piece by piece without blocking others do so, the rest collect
+     * the content in memory and pass it to {@link #write(Path, byte[])}. A file is not stored
+     * if the content fails.
+     *
+     * @param path    path relative to the root of the output
+     * @param content writes data into the supplied stream, which must not be closed
+     * @throws IOException content failed or file could not be written
+     */
+    default void stream(Path path, Content content) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        content.writeTo(buffer);
+        write(path, buffer.toByteArray());
+    }
+
+    /**
+     * Makes files written so far durable, if the sink supports that. Called from time to time,
+     * so that expensive syncs are made for groups of files rather than for each of them.
+     *
+     * @throws IOException files could not be synced
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Data of a file produced on demand
+     */
+    interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps request rate at the highest level the server tolerates.
+ * <ul>
+ * <li> Requests are started no faster than the configured rate (a token bucket holding a single token).
+ * <li> Number of requests in flight is limited, the limit grows by one per round of successful
+ * requests and is halved when the server throttles or when latency grows well above the usual one
+ * (additive increase, multiplicative decrease).
+ * <li> Throttled requests (429 and 503) are retried after the delay requested by Retry-After header,
+ * no other request is started before that delay passes.
+ * <li> Requests failed with an I/O error or a server error (500, 502 and 504) are retried after an exponentially
+ * growing delay with random jitter, other requests go on meanwhile.
+ * </ul>
+ * A request is considered completed when response headers arrive, reading of the body is not accounted.
+ * <p>
+ * Waiting is done on a {@link ReentrantLock} rather than on a monitor, so that virtual threads waiting for
+ * a slot give their carrier threads up. The non-blocking engine never waits, it gets a slot as a future
+ * which a freed slot completes.
+ */
+class RequestGovernor {
+    /**
+     * Not defined in {@link HttpStatus}
+     */
+    static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final double DECREASE_FACTOR = 0.5;
+    /**
+     * Latency this many times higher than the usual one is treated as congestion
+     */
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_SMOOTHING = 0.2;
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final long DEFAULT_RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toNanos(5);
+    private static final long FAILURE_RETRY_DELAY = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MAX_FAILURE_RETRY_DELAY = TimeUnit.SECONDS.toNanos(30);
+
+    private final long intervalNanos;
+    private final int maxConcurrency;
+    private final int maxRetries;
+    private final int maxFailureRetries;
+    private final boolean verbose;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+
+    // Guarded by lock
+    private long nextStartAt = System.nanoTime();
+    private long pausedUntil = nextStartAt;
+    private long lastDecreaseAt = nextStartAt;
+    private double limit;
+    private int inFlight;
+    private double smoothedLatency;
+    private double baselineLatency = Double.MAX_VALUE;
+    private final Queue<PendingSlot> pendingSlots = new ArrayDeque<>();
+
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    /**
+     * Failed requests are not retried
+     *
+     * @see #RequestGovernor(int, int, int, int, boolean)
+     */
+    RequestGovernor(int requestsPerSecond, int maxConcurrency, int maxRetries, boolean verbose) {
+        this(requestsPerSecond, maxConcurrency, maxRetries, 0, verbose);
+    }
+
+    /**
+     * @param requestsPerSecond rate ceiling, 0 means no ceiling
+     * @param maxConcurrency    ceiling of requests in flight
+     * @param maxRetries        how many times a throttled request is retried
+     * @param maxFailureRetries how many times a request failed with an I/O error or a server error is retried
+     * @param verbose           report throttling and retries to stdout
+     */
+    RequestGovernor(int requestsPerSecond, int maxConcurrency, int maxRetries, int maxFailureRetries,
+                    boolean verbose) {
+        this.intervalNanos = requestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / requestsPerSecond : 0;
+        this.maxConcurrency = maxConcurrency;
+        this.maxRetries = maxRetries;
+        this.maxFailureRetries = maxFailureRetries;
+        this.verbose = verbose;
+        this.limit = maxConcurrency;
+    }
+
+    /**
+     * Executes request when rate and concurrency limits allow, retrying it while the server throttles
+     * and while it fails
+     *
+     * @param request request to be sent, may be executed several times
+     * @return response, throttled or failed one only if retries are exhausted
+     * @throws IOException request failed after all retries or thread was interrupted while waiting
+     */
+    HttpResponse execute(Request request) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            acquire();
+
+            long startedAt = System.nanoTime();
+            HttpResponse response;
+            long retryDelay;
+            try {
+                response = request.execute();
+            } catch (IOException e) {
+                retryDelay = onFailure(e, attempt);
+                if (retryDelay < 0) {
+                    throw e;
+                }
+                pause(retryDelay);
+                continue;
+            } catch (RuntimeException e) {
+                onFailure();
+                throw e;
+            }
+
+            retryDelay = onResponse(response, System.nanoTime() - startedAt, attempt);
+            if (retryDelay < 0) {
+                return response;
+            }
+            EntityUtils.consumeQuietly(response.getEntity());
+            // A pause requested by the server holds back acquire() of other requests as well
+            pause(retryDelay);
+        }
+    }
+
+    private static void pause(long delay) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry a request");
+        }
+    }
+
+    /**
+     * Waits for a free slot and for the start time permitted by rate limit and server-requested pauses.
+     * Every successful call must be followed by either {@link #onResponse} or {@link #onFailure}.
+     *
+     * @throws InterruptedIOException thread was interrupted while waiting
+     */
+    void acquire() throws InterruptedIOException {
+        long delay;
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit || !pendingSlots.isEmpty()) {
+                slotFreed.await();
+            }
+            delay = takeSlot();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            freeSlot();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a request slot");
+        }
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #acquire()} for the non-blocking engine, which cannot wrap the request
+     * into {@link #execute}. The same contract applies once the returned future completes.
+     *
+     * @param timer completes the future when the start time comes, must not be blocked by the caller
+     * @return completes when the request may be sent, exceptionally if the timer is shut down meanwhile
+     */
+    CompletableFuture<Void> acquireAsync(ScheduledExecutorService timer) {
+        PendingSlot slot = new PendingSlot(timer);
+        long delay;
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit || !pendingSlots.isEmpty()) {
+                pendingSlots.add(slot);
+                return slot.future;
+            }
+            delay = takeSlot();
+        } finally {
+            lock.unlock();
+        }
+        if (delay <= 0) {
+            slot.future.complete(null);
+        } else {
+            grant(slot, delay);
+        }
+        return slot.future;
+    }
+
+    /**
+     * Takes a free slot and the next start time, lock must be held
+     *
+     * @return delay before the request may be sent, nanos
+     */
+    private long takeSlot() {
+        inFlight++;
+        long now = System.nanoTime();
+        long startAt = Math.max(now, Math.max(nextStartAt, pausedUntil));
+        nextStartAt = startAt + intervalNanos;
+        return startAt - now;
+    }
+
+    /**
+     * Completes a slot taken for a pending request on its timer, never in the thread which freed the slot
+     */
+    private void grant(PendingSlot slot, long delay) {
+        try {
+            slot.timer.schedule(() -> slot.future.complete(null), delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The slot is given back without serving other pending requests, their timers are likely shut down too
+            lock.lock();
+            try {
+                inFlight--;
+                slotFreed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            slot.future.completeExceptionally(new InterruptedIOException("Stopped while waiting for a request slot"));
+        }
+    }
+
+    /**
+     * Frees the slot taken by a request which got a response
+     *
+     * @param response response headers
+     * @param latency  time from sending the request to receiving the response, nanos
+     * @param attempt  number of retries of this request made so far
+     * @return delay before the request should be retried, nanos, or a negative value if response is final
+     */
+    long onResponse(HttpResponse response, long latency, int attempt) {
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_INTERNAL_SERVER_ERROR || status == HttpStatus.SC_BAD_GATEWAY
+                || status == HttpStatus.SC_GATEWAY_TIMEOUT) {
+            // Tells nothing about congestion, latency of an error is not the usual one either
+            freeSlot();
+            return onFailed(attempt, "Server error " + status);
+        }
+        if (status != SC_TOO_MANY_REQUESTS && status != HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            onCompleted(latency);
+            return -1;
+        }
+
+        long delay = retryDelay(response, attempt);
+        onThrottled(delay);
+        if (attempt >= maxRetries) {
+            return -1;
+        }
+        if (verbose) {
+            System.out.println("Server asked to slow down, retrying in "
+                    + TimeUnit.NANOSECONDS.toMillis(delay) + " ms, at most "
+                    + getLimit() + " requests in flight");
+        }
+        retries.increment();
+        return delay;
+    }
+
+    /**
+     * Frees the slot taken by a request which failed without response and will not be retried
+     */
+    void onFailure() {
+        freeSlot();
+    }
+
+    /**
+     * Frees the slot taken by a request which failed without response
+     *
+     * @param cause   why the request failed
+     * @param attempt number of retries of this request made so far
+     * @return delay before the request should be retried, nanos, or a negative value if the failure is final
+     */
+    long onFailure(Exception cause, int attempt) {
+        freeSlot();
+        // Timeouts are worth another attempt, other interruptions mean the run is being stopped
+        boolean interrupted = Thread.currentThread().isInterrupted() || (cause instanceof InterruptedIOException
+                && !(cause instanceof SocketTimeoutException) && !(cause instanceof ConnectTimeoutException));
+        return interrupted ? -1 : onFailed(attempt, cause.toString());
+    }
+
+    private long onFailed(int attempt, String reason) {
+        failed.increment();
+        if (attempt >= maxFailureRetries) {
+            return -1;
+        }
+        long delay = failureRetryDelay(attempt);
+        if (verbose) {
+            System.out.println(reason + ", retrying in " + TimeUnit.NANOSECONDS.toMillis(delay) + " ms");
+        }
+        retries.increment();
+        return delay;
+    }
+
+    private void freeSlot() {
+        lock.lock();
+        try {
+            inFlight--;
+            // Pending requests of the non-blocking engine are served first, blocked threads take what is left
+            PendingSlot slot;
+            while (inFlight < (int) limit && (slot = pendingSlots.poll()) != null) {
+                grant(slot, takeSlot());
+            }
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return current limit of requests in flight
+     */
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getThrottled() {
+        return throttled.sum();
+    }
+
+    long getFailed() {
+        return failed.sum();
+    }
+
+    long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Requests: %d throttled, %d failed, %d retried, %d allowed in flight at the end",
+                getThrottled(), getFailed(), getRetries(), getLimit());
+    }
+
+    private void onCompleted(long latency) {
+        lock.lock();
+        try {
+            smoothedLatency = smoothedLatency == 0 ? latency
+                    : smoothedLatency + LATENCY_SMOOTHING * (latency - smoothedLatency);
+            // Usual latency follows the lowest seen, but slowly drifts up to forget one-off fast responses
+            baselineLatency = Math.min(latency,
+                    baselineLatency + BASELINE_DRIFT * (smoothedLatency - baselineLatency));
+
+            if (smoothedLatency > LATENCY_TOLERANCE * baselineLatency) {
+                decrease();
+            } else {
+                limit = Math.min(maxConcurrency, limit + 1 / limit);
+            }
+            freeSlot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onThrottled(long delay) {
+        lock.lock();
+        try {
+            throttled.increment();
+            decrease();
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + delay);
+            freeSlot();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Requests in flight were sent before congestion was noticed, so decrease happens at most once per round trip
+     */
+    private void decrease() {
+        long now = System.nanoTime();
+        if (now - lastDecreaseAt < smoothedLatency) {
+            return;
+        }
+        lastDecreaseAt = now;
+        limit = Math.max(1, limit * DECREASE_FACTOR);
+    }
+
+    /**
+     * @return delay requested by server in Retry-After header, either in seconds or as a date,
+     * or exponentially growing default delay if there is no such header
+     */
+    private static long retryDelay(HttpResponse response, int attempt) {
+        long delay = DEFAULT_RETRY_DELAY << Math.min(attempt, 8);
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null) {
+            String value = retryAfter.getValue().trim();
+            if (value.matches("\\d{1,9}")) {
+                delay = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+            } else {
+                Date date = DateUtils.parseDate(value);
+                if (date != null) {
+                    delay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, date.getTime() - System.currentTimeMillis()));
+                }
+            }
+        }
+        return Math.min(delay, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * @return delay doubling with every attempt, randomized by up to a half so that requests which failed
+     * together are not retried together
+     */
+    private static long failureRetryDelay(int attempt) {
+        long delay = Math.min(FAILURE_RETRY_DELAY << Math.min(attempt, 8), MAX_FAILURE_RETRY_DELAY);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Slot requested by the non-blocking engine and not taken yet
+     */
+    private static class PendingSlot {
+        final ScheduledExecutorService timer;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingSlot(ScheduledExecutorService timer) {
+            this.timer = timer;
+        }
+    }
+
+    /**
+     * A request which may be sent several times
+     */
+    interface Request {
+        HttpResponse execute() throws IOException;
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import lombok.Value;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.message.BasicHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache of response bodies keyed by URL.
+ * <p>
+ * Each entry is a pair of files named after a hash of the URL: the body itself and its validators
+ * (ETag, Last-Modified, time of the last check). Entries younger than TTL are used without asking
+ * the server, older ones are revalidated with a conditional request.
+ * <p>
+ * Total size of bodies is bounded, least recently used entries are evicted first. Last use time
+ * is kept as modification time of the body file, so it survives between runs. Size of entries left
+ * by previous runs is counted only when something is stored, runs served from the cache never list it.
+ */
+class ResponseCache {
+    private static final String BODY_SUFFIX = ".json";
+    private static final String META_SUFFIX = ".properties";
+    private static final String URL_PROPERTY = "url";
+    private static final String ETAG_PROPERTY = "etag";
+    private static final String LAST_MODIFIED_PROPERTY = "last_modified";
+    private static final String CHECKED_AT_PROPERTY = "checked_at";
+
+    private final Path directory;
+    private final long ttlMillis;
+    private final long maxBytes;
+    private final AtomicLong size = new AtomicLong();
+    private volatile boolean sizeCounted;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder revalidations = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param directory where to keep entries, created if missing
+     * @param ttlMillis how long an entry is used without revalidation
+     * @param maxBytes  upper bound of total size of cached bodies
+     * @throws IOException directory is not accessible
+     */
+    ResponseCache(Path directory, long ttlMillis, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * @param url request URL
+     * @return stored entry or null if there is none
+     */
+    Entry lookup(String url) {
+        String key = DigestUtils.sha256Hex(url);
+        Path meta = directory.resolve(key + META_SUFFIX);
+        Path body = directory.resolve(key + BODY_SUFFIX);
+        if (!Files.exists(meta) || !Files.exists(body)) {
+            return null;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(meta)) {
+            properties.load(in);
+            if (!url.equals(properties.getProperty(URL_PROPERTY))) {
+                return null;
+            }
+            return new Entry(url, body,
+                    properties.getProperty(ETAG_PROPERTY),
+                    properties.getProperty(LAST_MODIFIED_PROPERTY),
+                    Long.parseLong(properties.getProperty(CHECKED_AT_PROPERTY, "0")));
+        } catch (IOException | NumberFormatException e) {
+            // Broken entry is as good as missing one, it will be overwritten
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the entry may be used without asking the server
+     */
+    boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.getCheckedAt() < ttlMillis;
+    }
+
+    /**
+     * @return headers turning a request into a conditional one
+     */
+    Header[] validatorsOf(Entry entry) {
+        List<Header> headers = new ArrayList<>(2);
+        if (entry.getEtag() != null) {
+            headers.add(new BasicHeader(HttpHeaders.IF_NONE_MATCH, entry.getEtag()));
+        }
+        if (entry.getLastModified() != null) {
+            headers.add(new BasicHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified()));
+        }
+        return headers.toArray(new Header[0]);
+    }
+
+    /**
+     * Registers use of a fresh entry
+     *
+     * @return body of the entry
+     */
+    Path hit(Entry entry) {
+        hits.increment();
+        touch(entry.getBody());
+        return entry.getBody();
+    }
+
+    /**
+     * Registers that server confirmed the entry is still valid
+     *
+     * @return body of the entry
+     * @throws IOException validators could not be updated
+     */
+    Path revalidated(Entry entry) throws IOException {
+        revalidations.increment();
+        writeMeta(entry.getUrl(), entry.getEtag(), entry.getLastModified());
+        touch(entry.getBody());
+        return entry.getBody();
+    }
+
+    /**
+     * Stores a successful response, replacing the previous entry if any
+     *
+     * @param url      request URL
+     * @param response response with a body which is not consumed yet
+     * @return stored body
+     * @throws IOException body could not be read or stored
+     */
+    Path store(String url, HttpResponse response) throws IOException {
+        misses.increment();
+        countSize();
+
+        String key = DigestUtils.sha256Hex(url);
+        Path body = directory.resolve(key + BODY_SUFFIX);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            HttpEntity entity = response.getEntity();
+            try (InputStream content = entity.getContent()) {
+                Files.copy(content, temporary, StandardCopyOption.REPLACE_EXISTING);
+            }
+            long previousSize = Files.exists(body) ? Files.size(body) : 0;
+            long newSize = Files.size(temporary);
+            Files.move(temporary, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            size.addAndGet(newSize - previousSize);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        writeMeta(url, headerValue(response, HttpHeaders.ETAG), headerValue(response, HttpHeaders.LAST_MODIFIED));
+        evictIfNeeded(body);
+        return body;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return total size of cached bodies, or of the ones stored by this run if the directory cannot be listed
+     */
+    long getSize() {
+        try {
+            countSize();
+        } catch (IOException e) {
+            // Reported by the next store
+        }
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Cache: %d hits, %d revalidated, %d misses, %d KB stored in %s",
+                getHits(), getRevalidations(), getMisses(), getSize() / 1024, directory);
+    }
+
+    /**
+     * Adds up sizes of bodies stored by previous runs, once. Stores wait for it, so no body is counted twice.
+     */
+    private void countSize() throws IOException {
+        if (sizeCounted) {
+            return;
+        }
+        synchronized (size) {
+            if (sizeCounted) {
+                return;
+            }
+            try (Stream<Path> bodies = bodies()) {
+                for (Path body : (Iterable<Path>) bodies::iterator) {
+                    size.addAndGet(Files.size(body));
+                }
+            }
+            sizeCounted = true;
+        }
+    }
+
+    private void writeMeta(String url, String etag, String lastModified) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(URL_PROPERTY, url);
+        if (etag != null) {
+            properties.setProperty(ETAG_PROPERTY, etag);
+        }
+        if (lastModified != null) {
+            properties.setProperty(LAST_MODIFIED_PROPERTY, lastModified);
+        }
+        properties.setProperty(CHECKED_AT_PROPERTY, Long.toString(System.currentTimeMillis()));
+
+        String key = DigestUtils.sha256Hex(url);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                properties.store(out, null);
+            }
+            Files.move(temporary, directory.resolve(key + META_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Removes least recently used entries until total size fits the limit. The entry just stored is kept
+     * even if it alone exceeds the limit, as it is about to be read.
+     */
+    private synchronized void evictIfNeeded(Path justStored) throws IOException {
+        if (size.get() <= maxBytes) {
+            return;
+        }
+
+        List<Path> leastRecentlyUsedFirst;
+        try (Stream<Path> bodies = bodies()) {
+            leastRecentlyUsedFirst = bodies
+                    .filter(body -> !body.equals(justStored))
+                    .sorted(Comparator.comparing(ResponseCache::lastUsed))
+                    .collect(Collectors.toList());
+        }
+
+        for (Path body : leastRecentlyUsedFirst) {
+            if (size.get() <= maxBytes) {
+                break;
+            }
+            try {
+                long bodySize = Files.size(body);
+                Files.delete(body);
+                size.addAndGet(-bodySize);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            String fileName = body.getFileName().toString();
+            Files.deleteIfExists(body.resolveSibling(
+                    fileName.substring(0, fileName.length() - BODY_SUFFIX.length()) + META_SUFFIX));
+        }
+    }
+
+    private Stream<Path> bodies() throws IOException {
+        return Files.list(directory).filter(path -> path.getFileName().toString().endsWith(BODY_SUFFIX));
+    }
+
+    private static FileTime lastUsed(Path body) {
+        try {
+            return Files.getLastModifiedTime(body);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void touch(Path body) {
+        try {
+            Files.setLastModifiedTime(body, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects eviction order
+        }
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    @Value
+    static class Entry {
+        String url;
+        Path body;
+        String etag;
+        String lastModified;
+        /**
+         * When the server was asked about this entry for the last time, millis since epoch
+         */
+        long checkedAt;
+    }
+}
@@ -15,25 +15,190 @@
  */
 package net.cyllene.hackerrank.downloader;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.With;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 class Settings {
     public static final String DOMAIN = "www.hackerrank.com";
     public static final String BASE_URL = "https://" + DOMAIN;
+    public static final String BASE_URL_PROPERTY = "hackerrank.baseUrl";
     public static final String COOKIE_NAME = "_hrank_session";
     public static final String KEY_FILENAME = ".hackerrank-downloader-key";
+    public static final String WATERMARK_FILENAME = ".hackerrank-downloader-watermark";
+    public static final String MANIFEST_FILENAME = ".hackerrank-downloader-manifest";
+    public static final String JOURNAL_FILENAME = ".hackerrank-downloader-journal";
+    public static final String DEAD_LETTER_FILENAME = ".hackerrank-downloader-failed";
+    public static final String CACHE_DIRNAME = ".hackerrank-downloader-cache";
+    public static final String OBJECTS_DIRNAME = ".objects";
     public static final int DEFAULT_LIMIT = 65535;
     public static final int DEFAULT_OFFSET = 0;
     public static final int STATUS_CODE_ACCEPTED = 2;
+    public static final int DEFAULT_THREADS = 1;
+    public static final int IO_THREADS = 2;
+    public static final int PAGE_SIZE = 100;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    public static final int DEFAULT_READ_TIMEOUT = 30;
+    public static final int DEFAULT_REQUEST_TIMEOUT = 60;
+    public static final int IDLE_CONNECTION_TIMEOUT = 30;
+    public static final int DEFAULT_RATE_LIMIT = 0;
+    public static final int THROTTLED_REQUEST_RETRIES = 5;
+    public static final int DEFAULT_RETRIES = 3;
+    public static final int DETAILS_CACHE_ENTRIES = 1024;
+    public static final int DEFAULT_CACHE_TTL = 168;
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    public static final int DEFAULT_WRITE_QUEUE = 1024;
 
+    /**
+     * Server to download from, replaced only by benchmarks running against a local stand-in,
+     * directly or with {@value #BASE_URL_PROPERTY} system property when the downloader is a separate process
+     */
+    private String baseUrl = System.getProperty(BASE_URL_PROPERTY, BASE_URL);
+    /**
+     * Replaced for every account of a batch, the rest of settings is shared by all of them
+     */
+    @With
     private Path outputDir = Paths.get("./hackerrank_challenges");
+    /**
+     * Accounts to download in a single run, null for the account of {@value #KEY_FILENAME}
+     */
+    private Path batchFile;
+    /**
+     * Part of the download made by this run, null if the run downloads everything
+     */
+    private Shard shard;
+    /**
+     * Combine finished shards instead of downloading
+     */
+    private boolean mergeShards = false;
     private int limit = DEFAULT_LIMIT;
     private int offset = DEFAULT_OFFSET;
     private boolean verbose = false;
     private boolean forcedFilesOverwrite = false;
+    private boolean syncMode = false;
+    /**
+     * Skip files recorded in the journal of an interrupted run
+     */
+    private boolean resume = false;
+    /**
+     * Download only what is listed in the dead-letter file of a previous run
+     */
+    private boolean retryFailed = false;
+    private boolean deduplicated = false;
     private boolean acceptedOnly = true;
+    private int threads = DEFAULT_THREADS;
+    private Engine engine = Engine.BLOCKING;
+    private Selection selection = Selection.ALL;
+    private Format format = Format.FILES;
+    /**
+     * Files waiting for the writer thread, 0 means files are written by download threads
+     */
+    private int writeQueue = DEFAULT_WRITE_QUEUE;
+    private boolean fsync = false;
+    /**
+     * Flight recording of the run, null if the run is not recorded
+     */
+    private Path jfrFile;
+    /**
+     * Pooled connections in total and per host. By default one per worker plus one for listing.
+     */
+    private int maxConnections = DEFAULT_THREADS + 1;
+    private int maxConnectionsPerRoute = DEFAULT_THREADS + 1;
+    /**
+     * Timeouts in seconds
+     */
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+    private int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    /**
+     * Requests per second, 0 means unlimited: the rate is then bounded only by adaptive concurrency
+     * and by delays the server requests
+     */
+    private int rateLimit = DEFAULT_RATE_LIMIT;
+    /**
+     * Retries of a request failed with an I/O error or a server error, throttled requests are retried separately
+     */
+    private int retries = DEFAULT_RETRIES;
+    private boolean cacheEnabled = true;
+    private Path cacheDir = Paths.get(System.getProperty("user.home"), CACHE_DIRNAME);
+    /**
+     * Hours a cached challenge description is used without revalidation
+     */
+    private int cacheTtl = DEFAULT_CACHE_TTL;
+    /**
+     * Megabytes
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * @return archive written instead of output directory in {@link Format#ZIP} format, next to the directory
+     */
+    Path getArchivePath() {
+        return outputDir.resolveSibling(outputDir.getFileName() + ".zip");
+    }
+
+    /**
+     * @return settings writing into the staging directory of the shard, or these settings if the run is not sharded
+     */
+    Settings forShard() {
+        return shard == null ? this : withOutputDir(shard.stagingDir(outputDir));
+    }
+
+    /**
+     * How downloaded files are stored
+     */
+    enum Format {
+        /**
+         * A file per challenge description and per solution
+         */
+        FILES,
+        /**
+         * A single zip archive with the same layout
+         */
+        ZIP
+    }
+
+    /**
+     * Which submissions of a challenge are downloaded
+     */
+    enum Selection {
+        /**
+         * Every listed submission
+         */
+        ALL,
+        /**
+         * The most recent one
+         */
+        LATEST,
+        /**
+         * The one with the highest score, the most recent of equal ones
+         */
+        BEST_SCORE
+    }
+
+    /**
+     * How details of challenges and submissions are requested
+     */
+    enum Engine {
+        /**
+         * A thread per request in flight
+         */
+        BLOCKING,
+        /**
+         * Non-blocking I/O, requests in flight are limited by connection pool only
+         */
+        ASYNC,
+        /**
+         * A virtual thread per challenge and per submission, {@link Settings#getThreads()} is the number
+         * of requests in flight. Needs JDK 21 and the complete jar
+         */
+        VIRTUAL
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import lombok.Value;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * One of several parts of a download, run by separate processes or machines.
+ * <p>
+ * Challenges are assigned to shards by hash of their slug, so every shard lists the same history and
+ * picks the same challenges no matter when and where it runs, and a challenge with its description is
+ * downloaded by a single shard. A shard writes into a staging directory next to the output directory,
+ * the staging directories are combined by {@link ShardMerger}.
+ */
+@Value
+class Shard {
+    private static final Pattern SPEC = Pattern.compile("(\\d{1,4})/(\\d{1,4})");
+    private static final String STAGING_SUFFIX = ".shard-";
+
+    /**
+     * From 1 to {@link #count}
+     */
+    int index;
+    int count;
+
+    /**
+     * @param spec shard as given on command line, e.g. 2/4
+     * @return parsed shard
+     * @throws IllegalArgumentException spec is malformed or index is out of range
+     */
+    static Shard parse(String spec) {
+        Matcher matcher = SPEC.matcher(spec.trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("expected INDEX/COUNT, e.g. 2/4");
+        }
+        int index = Integer.parseInt(matcher.group(1));
+        int count = Integer.parseInt(matcher.group(2));
+        if (index < 1 || index > count) {
+            throw new IllegalArgumentException("index must be from 1 to " + count);
+        }
+        return new Shard(index, count);
+    }
+
+    /**
+     * @return true if submissions of the challenge are downloaded by this shard
+     */
+    boolean owns(String challengeSlug) {
+        return Math.floorMod(challengeSlug.hashCode(), count) == index - 1;
+    }
+
+    /**
+     * @param outputDir directory the shards are merged into
+     * @return directory this shard writes into, e.g. hackerrank_challenges.shard-2-of-4
+     */
+    Path stagingDir(Path outputDir) {
+        return outputDir.resolveSibling(outputDir.getFileName() + STAGING_SUFFIX + index + "-of-" + count);
+    }
+
+    /**
+     * @param outputDir directory the shards are merged into
+     * @return staging directories of any shards found next to the output directory
+     * @throws IOException parent of the output directory could not be listed
+     */
+    static List<Path> findStagingDirs(Path outputDir) throws IOException {
+        Pattern name = Pattern.compile(Pattern.quote(outputDir.getFileName() + STAGING_SUFFIX) + "\\d+-of-\\d+");
+        try (Stream<Path> siblings = Files.list(outputDir.getParent())) {
+            return siblings
+                    .filter(path -> Files.isDirectory(path) && name.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import lombok.Value;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * What a shard has downloaded, stored in its staging directory when the shard finishes.
+ * A staging directory without a manifest belongs to a shard which did not finish.
+ * <p>
+ * Text file with a record per line: {@code shard INDEX/COUNT}, {@code listing ID CREATED_AT} with the newest
+ * submission listed, then {@code written SLUG ID...} and {@code failed SLUG ID...} per challenge.
+ */
+@Value
+class ShardManifest {
+    private static final String SHARD = "shard";
+    private static final String LISTING = "listing";
+    private static final String WRITTEN = "written";
+    private static final String FAILED = "failed";
+
+    Shard shard;
+    /**
+     * Newest submission of the listing, shards listing the same history have the same one
+     */
+    Watermark listing;
+    SubmissionIndex written;
+    SubmissionIndex failed;
+
+    /**
+     * @param directory staging directory of a shard
+     * @return stored manifest or null if there is none
+     * @throws IOException manifest exists but could not be read
+     */
+    static ShardManifest load(Path directory) throws IOException {
+        Path file = directory.resolve(Settings.MANIFEST_FILENAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Shard shard = null;
+        Watermark listing = Watermark.NONE;
+        SubmissionIndex written = new SubmissionIndex();
+        SubmissionIndex failed = new SubmissionIndex();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split(" ");
+                if (fields[0].isEmpty() || fields[0].startsWith("#")) {
+                    continue;
+                }
+                switch (fields[0]) {
+                    case SHARD:
+                        shard = Shard.parse(fields[1]);
+                        break;
+                    case LISTING:
+                        listing = new Watermark(Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+                        break;
+                    case WRITTEN:
+                    case FAILED:
+                        SubmissionIndex index = fields[0].equals(WRITTEN) ? written : failed;
+                        for (int i = 2; i < fields.length; i++) {
+                            index.add(fields[1], Long.parseLong(fields[i]));
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown record in " + file + ": " + fields[0]);
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed manifest " + file, e);
+        }
+        if (shard == null) {
+            throw new IOException("Malformed manifest " + file + ": shard is not specified");
+        }
+        return new ShardManifest(shard, listing, written, failed);
+    }
+
+    /**
+     * Stores the manifest in the directory, replacing the previous one
+     *
+     * @param directory staging directory of the shard
+     * @throws IOException manifest could not be written
+     */
+    void store(Path directory) throws IOException {
+        Path temporary = Files.createTempFile(directory, Settings.MANIFEST_FILENAME, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                writer.write("# Shard of a download by hackerrank-downloader, combine shards with --merge\n");
+                writer.write(SHARD + " " + shard + "\n");
+                writer.write(LISTING + " " + listing.getId() + " " + listing.getCreatedAt() + "\n");
+                writeIndex(writer, WRITTEN, written);
+                writeIndex(writer, FAILED, failed);
+            }
+            Files.move(temporary, directory.resolve(Settings.MANIFEST_FILENAME),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void writeIndex(BufferedWriter writer, String record, SubmissionIndex index) throws IOException {
+        try {
+            index.forEach((slug, submissionIds) -> {
+                StringBuilder line = new StringBuilder(record).append(' ').append(slug);
+                for (long submissionId : submissionIds) {
+                    line.append(' ').append(submissionId);
+                }
+                try {
+                    writer.write(line.append('\n').toString());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Combines staging directories of all shards of a download into the usual layout of the output directory.
+ * <p>
+ * Nothing is merged unless every shard has finished and all of them split the work the same way. Files are
+ * moved, so staging directories disappear. A submission written by more than one shard is a duplicate and is
+ * kept once. Files with the same path and different content are conflicts, the copy of the lowest shard wins
+ * and staging directories are kept for inspection.
+ * <p>
+ * Sync state of the merged directory is the oldest of the listings of the shards: shards listing the history
+ * at different times might miss submissions made in between, the next sync requests them again.
+ */
+class ShardMerger {
+    private final Path outputDir;
+    private final boolean force;
+    private final boolean verbose;
+
+    private int shards;
+    private long files;
+    private long submissions;
+    private long duplicates;
+    private long conflicts;
+    private long failed;
+
+    /**
+     * @param outputDir directory to merge into, staging directories of shards are next to it
+     * @param force     merge into an existing directory
+     * @param verbose   report every moved file
+     */
+    ShardMerger(Path outputDir, boolean force, boolean verbose) {
+        this.outputDir = outputDir;
+        this.force = force;
+        this.verbose = verbose;
+    }
+
+    /**
+     * @throws ExitWithErrorException shards are missing, unfinished or inconsistent, or output could not be written
+     */
+    void merge() {
+        try {
+            Map<Integer, Path> stagingDirs = new TreeMap<>();
+            Map<Integer, ShardManifest> manifests = loadManifests(stagingDirs);
+            if (Files.exists(outputDir) && !force) {
+                throw new ExitWithErrorException("Directory exists: " + outputDir
+                        + ", set the --force flag to merge shards into it. May lead to data loss, be careful.");
+            }
+
+            Set<Long> seen = new HashSet<>();
+            for (ShardManifest manifest : manifests.values()) {
+                manifest.getWritten().forEach((slug, submissionIds) -> {
+                    for (long submissionId : submissionIds) {
+                        if (seen.add(submissionId)) {
+                            submissions++;
+                        } else {
+                            duplicates++;
+                        }
+                    }
+                });
+                failed += manifest.getFailed().getSubmissionCount();
+            }
+
+            Set<Path> moved = new HashSet<>();
+            for (Map.Entry<Integer, Path> stagingDir : stagingDirs.entrySet()) {
+                moveFiles(stagingDir.getKey(), stagingDir.getValue(), moved);
+            }
+            storeWatermark(manifests);
+            if (conflicts == 0) {
+                for (Path stagingDir : stagingDirs.values()) {
+                    removeStagingDir(stagingDir);
+                }
+            }
+        } catch (IOException e) {
+            throw new ExitWithErrorException("Unable to merge shards into " + outputDir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param stagingDirs receives staging directories by shard index
+     * @return manifests by shard index, all of them present and of the same split
+     */
+    private Map<Integer, ShardManifest> loadManifests(Map<Integer, Path> stagingDirs) throws IOException {
+        List<Path> found = Shard.findStagingDirs(outputDir);
+        if (found.isEmpty()) {
+            throw new ExitWithErrorException("No shards of " + outputDir + " found, expected directories like "
+                    + new Shard(1, 2).stagingDir(outputDir));
+        }
+
+        Map<Integer, ShardManifest> manifests = new TreeMap<>();
+        int count = 0;
+        for (Path stagingDir : found) {
+            ShardManifest manifest = ShardManifest.load(stagingDir);
+            if (manifest == null) {
+                throw new ExitWithErrorException("Shard in " + stagingDir + " did not finish, it has no manifest");
+            }
+            Shard shard = manifest.getShard();
+            if (count != 0 && shard.getCount() != count) {
+                throw new ExitWithErrorException("Shards were split in different ways: " + shard
+                        + " in " + stagingDir + " and " + manifests.values().iterator().next().getShard());
+            }
+            count = shard.getCount();
+            if (manifests.put(shard.getIndex(), manifest) != null) {
+                throw new ExitWithErrorException("Shard " + shard + " is found twice, in " + stagingDir
+                        + " and " + stagingDirs.get(shard.getIndex()));
+            }
+            stagingDirs.put(shard.getIndex(), stagingDir);
+        }
+
+        List<Integer> missing = IntStream.rangeClosed(1, count)
+                .filter(index -> !manifests.containsKey(index))
+                .boxed()
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            throw new ExitWithErrorException("Shards " + missing + " of " + count + " are missing, run them first");
+        }
+        shards = count;
+        return manifests;
+    }
+
+    /**
+     * @param moved relative paths of files already moved from other shards
+     */
+    private void moveFiles(int index, Path stagingDir, Set<Path> moved) throws IOException {
+        List<Path> sources;
+        try (Stream<Path> paths = Files.walk(stagingDir)) {
+            sources = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+
+        for (Path source : sources) {
+            Path relative = stagingDir.relativize(source);
+            // Journal of a shard with failures and parts of files it was writing do not belong to the output
+            if (relative.toString().equals(Settings.MANIFEST_FILENAME)
+                    || relative.toString().equals(Settings.JOURNAL_FILENAME)
+                    || relative.getFileName().toString().endsWith(DirectorySink.PART_SUFFIX)) {
+                continue;
+            }
+            Path target = outputDir.resolve(relative);
+            if (moved.contains(relative)) {
+                if (Files.isSameFile(source, target)
+                        || Arrays.equals(Files.readAllBytes(source), Files.readAllBytes(target))) {
+                    Files.delete(source);
+                } else {
+                    conflicts++;
+                    System.err.println("Conflict: " + relative + " differs between shards, the copy of shard "
+                            + index + " is left in " + stagingDir);
+                }
+                continue;
+            }
+
+            Files.createDirectories(target.getParent());
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            moved.add(relative);
+            files++;
+            if (verbose) {
+                System.out.println("Merged: " + relative);
+            }
+        }
+    }
+
+    /**
+     * Same rules as for a regular run: skipped if some downloads failed, otherwise the next sync would never
+     * retry them
+     */
+    private void storeWatermark(Map<Integer, ShardManifest> manifests) throws IOException {
+        if (failed > 0) {
+            System.err.println("Warning: " + failed + " downloads failed in shards, sync state is not written."
+                    + " Next --sync will download everything again.");
+            return;
+        }
+
+        List<Watermark> listings = manifests.values().stream()
+                .map(ShardManifest::getListing)
+                .sorted(Comparator.comparingLong(Watermark::getId))
+                .collect(Collectors.toList());
+        Watermark oldest = listings.get(0);
+        if (oldest.getId() != listings.get(listings.size() - 1).getId()) {
+            System.out.println("Shards listed different histories, the next --sync requests everything after "
+                    + oldest.getId() + " again");
+        }
+        if (oldest != Watermark.NONE) {
+            oldest.store(outputDir);
+        }
+    }
+
+    /**
+     * Removes the manifest, the journal and directories emptied by the merge, anything else is kept
+     */
+    private static void removeStagingDir(Path stagingDir) throws IOException {
+        Files.deleteIfExists(stagingDir.resolve(Settings.MANIFEST_FILENAME));
+        Files.deleteIfExists(stagingDir.resolve(Settings.JOURNAL_FILENAME));
+        List<Path> directories;
+        try (Stream<Path> paths = Files.walk(stagingDir)) {
+            directories = paths.filter(Files::isDirectory)
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (Path directory : directories) {
+            try {
+                Files.delete(directory);
+            } catch (DirectoryNotEmptyException e) {
+                // Something was put there after the shard finished
+            }
+        }
+    }
+
+    long getDuplicates() {
+        return duplicates;
+    }
+
+    long getConflicts() {
+        return conflicts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Merged %d shards into %s: %d files, %d submissions, %d duplicates, %d conflicts,"
+                + " %d failed", shards, outputDir, files, submissions, duplicates, conflicts, failed);
+    }
+}
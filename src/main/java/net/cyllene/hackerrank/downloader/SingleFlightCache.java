@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache of decoded documents which also coalesces concurrent loads of the same key.
+ * <p>
+ * Callers asking for a key which is being loaded wait for that load instead of starting their own
+ * request (single flight), all of them get the same value or the same failure. Loaded values are kept
+ * in a bounded map, least recently used ones are dropped first. Failures are never kept, the next
+ * caller tries again.
+ * <p>
+ * Values are shared by all callers and must not be modified.
+ *
+ * @param <K> key, e.g. slug of a challenge
+ * @param <V> decoded document
+ */
+class SingleFlightCache<K, V> {
+    private final Map<K, V> values;
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    /**
+     * @param maxEntries how many values are kept, 0 to only coalesce loads in flight
+     */
+    @SuppressWarnings("serial") // The map is never serialized
+    SingleFlightCache(int maxEntries) {
+        this.values = Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Returns a kept value, or waits for a load of the key made by another thread, or loads it
+     *
+     * @param key    key of the value
+     * @param loader loads the value when nobody else does, on the calling thread
+     * @return loaded value
+     * @throws IOException loader failed, either the own one or the one waited for
+     */
+    V get(K key, Loader<V> loader) throws IOException {
+        V value = values.get(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, load);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing);
+        }
+        // Another load may have finished between the lookup and taking the key
+        value = values.get(key);
+        if (value != null) {
+            hits.increment();
+            finish(key, load, value, null);
+            return value;
+        }
+
+        loads.increment();
+        try {
+            value = loader.load();
+        } catch (IOException | RuntimeException | Error e) {
+            finish(key, load, null, e);
+            throw e;
+        }
+        finish(key, load, value, null);
+        return value;
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #get(Object, Loader)}
+     *
+     * @param loader starts loading the value when nobody else does
+     * @return future of the value, completed by the thread completing the load
+     */
+    CompletableFuture<V> getAsync(K key, Supplier<CompletableFuture<V>> loader) {
+        V value = values.get(key);
+        if (value != null) {
+            hits.increment();
+            return CompletableFuture.completedFuture(value);
+        }
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, load);
+        if (existing != null) {
+            coalesced.increment();
+            // A copy, so that a caller cannot complete or cancel the shared load
+            return existing.thenApply(v -> v);
+        }
+        value = values.get(key);
+        if (value != null) {
+            hits.increment();
+            finish(key, load, value, null);
+            return CompletableFuture.completedFuture(value);
+        }
+
+        loads.increment();
+        CompletableFuture<V> started;
+        try {
+            started = loader.get();
+        } catch (RuntimeException | Error e) {
+            finish(key, load, null, e);
+            throw e;
+        }
+        started.whenComplete((v, e) -> finish(key, load, v, e));
+        return load.thenApply(v -> v);
+    }
+
+    /**
+     * Keeps a value before releasing the key, so that a caller coming later finds either of them
+     */
+    private void finish(K key, CompletableFuture<V> load, V value, Throwable failure) {
+        if (failure == null) {
+            values.put(key, value);
+        }
+        inFlight.remove(key, load);
+        if (failure == null) {
+            load.complete(value);
+        } else {
+            load.completeExceptionally(failure);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a load by another thread");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Details: %d hits in memory, %d coalesced, %d loaded, %d kept",
+                getHits(), getCoalesced(), getLoads(), values.size());
+    }
+
+    /**
+     * Loads a value on the calling thread
+     */
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+}
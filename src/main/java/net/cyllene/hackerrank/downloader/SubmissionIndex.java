@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Submission IDs grouped by challenge slug, in order of first appearance of each challenge.
+ * <p>
+ * Listing of a long history holds tens of thousands of IDs, so they are kept in growable
+ * {@code long[]} arrays rather than in lists of boxed values. Each slug is stored once, whichever
+ * page it came from. With 10 submissions per challenge the index takes about 26 bytes per submission,
+ * see {@link #getFootprint()}, against over 50 for a {@code HashMap<String, LinkedList<Long>>}.
+ * <p>
+ * Not thread-safe, each page is built by a single thread and merged by the caller.
+ */
+class SubmissionIndex {
+    private static final int INITIAL_CAPACITY = 4;
+    /**
+     * Estimated sizes on a 64-bit JVM with compressed oops
+     */
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int HASH_MAP_ENTRY = 32 + 16;
+    private static final int STRING = 24 + ARRAY_HEADER;
+
+    /**
+     * Slug to position in the arrays below
+     */
+    private final Map<String, Integer> positions = new HashMap<>();
+    private String[] slugs = new String[INITIAL_CAPACITY];
+    private long[][] ids = new long[INITIAL_CAPACITY][];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int challenges;
+    private long submissions;
+
+    /**
+     * Appends a submission to its challenge
+     */
+    void add(String slug, long submissionId) {
+        int position = positionOf(slug);
+        long[] challengeIds = ids[position];
+        int count = counts[position];
+        if (count == challengeIds.length) {
+            challengeIds = Arrays.copyOf(challengeIds, count * 2);
+            ids[position] = challengeIds;
+        }
+        challengeIds[count] = submissionId;
+        counts[position] = count + 1;
+        submissions++;
+    }
+
+    /**
+     * Appends all submissions of another index, keeping their order
+     */
+    void addAll(SubmissionIndex other) {
+        for (int i = 0; i < other.challenges; i++) {
+            for (int j = 0; j < other.counts[i]; j++) {
+                add(other.slugs[i], other.ids[i][j]);
+            }
+        }
+    }
+
+    /**
+     * @return IDs of submissions of the challenge in order of addition, empty if there are none
+     */
+    long[] getSubmissionIds(String slug) {
+        Integer position = positions.get(slug);
+        return position == null ? new long[0] : Arrays.copyOf(ids[position], counts[position]);
+    }
+
+    /**
+     * Passes every challenge with its submissions to the consumer, in order of first appearance
+     */
+    void forEach(ChallengeConsumer consumer) {
+        for (int i = 0; i < challenges; i++) {
+            consumer.accept(slugs[i], Arrays.copyOf(ids[i], counts[i]));
+        }
+    }
+
+    int getChallengeCount() {
+        return challenges;
+    }
+
+    long getSubmissionCount() {
+        return submissions;
+    }
+
+    boolean isEmpty() {
+        return challenges == 0;
+    }
+
+    /**
+     * @return estimated number of bytes retained by the index, including slugs and unused capacity
+     */
+    long getFootprint() {
+        long bytes = 3L * ARRAY_HEADER + (long) slugs.length * (REFERENCE * 2 + Integer.BYTES);
+        for (int i = 0; i < challenges; i++) {
+            bytes += HASH_MAP_ENTRY + STRING + slugs[i].length()
+                    + ARRAY_HEADER + (long) ids[i].length * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("{");
+        forEach((slug, submissionIds) -> {
+            if (result.length() > 1) {
+                result.append(", ");
+            }
+            result.append(slug).append('=').append(Arrays.toString(submissionIds));
+        });
+        return result.append('}').toString();
+    }
+
+    private int positionOf(String slug) {
+        Integer position = positions.get(slug);
+        if (position != null) {
+            return position;
+        }
+        if (challenges == slugs.length) {
+            int capacity = challenges * 2;
+            slugs = Arrays.copyOf(slugs, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        slugs[challenges] = slug;
+        ids[challenges] = new long[INITIAL_CAPACITY];
+        positions.put(slug, challenges);
+        return challenges++;
+    }
+
+    /**
+     * Receives a challenge with its submissions
+     */
+    interface ChallengeConsumer {
+        void accept(String slug, long[] submissionIds);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.dto.SubmissionSummary;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Picks a single submission per challenge out of the listing, so that details are requested once per challenge
+ * instead of once per submission.
+ * <p>
+ * Every listed submission is offered while pages arrive, the choice is known only when the whole listing is seen.
+ * In sync mode only new submissions are listed, so the choice is made among them.
+ */
+class SubmissionSelector {
+    /**
+     * Newer submissions first, by creation time and then by id
+     */
+    private static final Comparator<SubmissionSummary> BY_TIME = Comparator
+            .comparingLong(SubmissionSummary::getCreatedAt)
+            .thenComparingLong(SubmissionSummary::getId);
+    /**
+     * Higher score first, the newer one of equal ones, missing score is the lowest
+     */
+    private static final Comparator<SubmissionSummary> BY_SCORE = Comparator
+            .comparing(SubmissionSummary::getScore, Comparator.nullsFirst(Comparator.<BigDecimal>naturalOrder()))
+            .thenComparing(BY_TIME);
+
+    private final Comparator<SubmissionSummary> order;
+    // Guarded by this
+    private final Map<String, SubmissionSummary> chosen = new LinkedHashMap<>();
+    private long offered;
+
+    /**
+     * @param selection policy, {@link Settings.Selection#ALL} needs no selector
+     */
+    SubmissionSelector(Settings.Selection selection) {
+        if (selection == Settings.Selection.ALL) {
+            throw new IllegalArgumentException("Every submission is selected anyway");
+        }
+        this.order = selection == Settings.Selection.LATEST ? BY_TIME : BY_SCORE;
+    }
+
+    /**
+     * Considers a listed submission. Safe to call from several threads.
+     */
+    synchronized void offer(SubmissionSummary submission) {
+        offered++;
+        chosen.merge(submission.getChallenge().getSlug(), submission,
+                (current, candidate) -> order.compare(candidate, current) > 0 ? candidate : current);
+    }
+
+    /**
+     * @return chosen submission of every challenge offered so far
+     */
+    synchronized SubmissionIndex getSelected() {
+        SubmissionIndex selected = new SubmissionIndex();
+        chosen.forEach((slug, submission) -> selected.add(slug, submission.getId()));
+        return selected;
+    }
+
+    /**
+     * @return number of detail requests avoided by the selection
+     */
+    synchronized long getAvoided() {
+        return offered - chosen.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Selection: %d of %d submissions, %d detail requests avoided",
+                chosen.size(), offered, getAvoided());
+    }
+}
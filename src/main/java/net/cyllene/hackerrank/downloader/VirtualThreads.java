@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Virtual threads, which exist on JDK 21 or newer only.
+ * <p>
+ * This is the variant for older JDKs, sources are compiled for Java 8. The complete jar is a multi-release
+ * one and carries another variant under {@code META-INF/versions/21}, built from {@code src/main/java21},
+ * which JDK 21 loads instead of this one.
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if virtual threads can be started
+     */
+    static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * @param name prefix of thread names
+     * @return executor starting a new virtual thread for every task, null if virtual threads are not
+     * available, see {@link #isAvailable()}
+     */
+    static ExecutorService newThreadPerTaskExecutor(String name) {
+        return null;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import lombok.Value;
+import net.cyllene.hackerrank.downloader.dto.SubmissionSummary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * The newest submission known to be stored in an output directory.
+ * <p>
+ * Persisted next to the downloaded challenges, so that the next run in sync mode
+ * requests only submissions made after it.
+ */
+@Value
+class Watermark {
+    static final Watermark NONE = new Watermark(0, 0);
+
+    private static final String ID_PROPERTY = "id";
+    private static final String CREATED_AT_PROPERTY = "created_at";
+
+    /**
+     * Highest submission id seen
+     */
+    long id;
+    /**
+     * Creation time of that submission, seconds since epoch
+     */
+    long createdAt;
+
+    /**
+     * @return true if the submission was made after this watermark
+     */
+    boolean isBefore(SubmissionSummary submission) {
+        return submission.getId() > id;
+    }
+
+    /**
+     * @return watermark covering both this one and the supplied submission
+     */
+    Watermark advance(SubmissionSummary submission) {
+        return isBefore(submission) ? new Watermark(submission.getId(), submission.getCreatedAt()) : this;
+    }
+
+    /**
+     * @return the newer one of two watermarks
+     */
+    Watermark max(Watermark other) {
+        return other.id > id ? other : this;
+    }
+
+    /**
+     * Reads a watermark stored in the directory by a previous run
+     *
+     * @param directory output directory
+     * @return stored watermark or {@link #NONE} if there is none
+     * @throws IOException watermark file exists but could not be read
+     */
+    static Watermark load(Path directory) throws IOException {
+        Path file = directory.resolve(Settings.WATERMARK_FILENAME);
+        if (!Files.exists(file)) {
+            return NONE;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        try {
+            return new Watermark(Long.parseLong(properties.getProperty(ID_PROPERTY, "0")),
+                    Long.parseLong(properties.getProperty(CREATED_AT_PROPERTY, "0")));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed watermark file: " + file, e);
+        }
+    }
+
+    /**
+     * Stores this watermark in the directory, replacing the previous one
+     *
+     * @param directory output directory
+     * @throws IOException watermark file could not be written
+     */
+    void store(Path directory) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ID_PROPERTY, Long.toString(id));
+        properties.setProperty(CREATED_AT_PROPERTY, Long.toString(createdAt));
+
+        Files.createDirectories(directory);
+        try (OutputStream out = Files.newOutputStream(directory.resolve(Settings.WATERMARK_FILENAME))) {
+            properties.store(out, "Newest submission downloaded by hackerrank-downloader");
+        }
+    }
+}
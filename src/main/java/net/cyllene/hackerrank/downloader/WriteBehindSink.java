@@ -0,0 +1,290 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import lombok.Value;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decouples downloading from writing: files are queued and written by a dedicated thread.
+ * <p>
+ * Download threads return as soon as a file is queued, so a slow disk shows up as a growing queue
+ * rather than as fewer requests in flight. The queue is bounded to keep memory in check, when it is
+ * full downloads wait for the writer. The writer takes files in batches and asks the underlying sink
+ * to flush after every batch, which lets it group expensive syncs.
+ * <p>
+ * A streamed file is kept in memory only up to a threshold, a larger one is spilled into a temporary file
+ * while it is downloaded and streamed from there into the underlying sink by the writer. So the queue holds
+ * at most a threshold of memory per file. A download thread still holds one copy of the code of the file
+ * it is decoding, in the buffer of the JSON parser, see {@link net.cyllene.hackerrank.downloader.dto.CodeTarget}.
+ */
+class WriteBehindSink implements OutputSink {
+    static final int DEFAULT_SPILL_THRESHOLD = 64 * 1024;
+
+    private static final int BATCH_SIZE = 64;
+    private static final Write END = new Write(null, null, null);
+
+    private final OutputSink delegate;
+    private final BlockingQueue<Write> queue;
+    private final int spillThreshold;
+    private final Thread writer;
+    /**
+     * First failure of the writer, reported to every following write
+     */
+    private volatile IOException failure;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    // Written by the writer thread only
+    private volatile int maxDepth;
+
+    /**
+     * @param delegate sink doing actual writes, used by a single thread only
+     * @param capacity how many files may wait in the queue
+     */
+    WriteBehindSink(OutputSink delegate, int capacity) {
+        this(delegate, capacity, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * @param spillThreshold size of streamed content kept in memory, the rest goes into a temporary file
+     */
+    WriteBehindSink(OutputSink delegate, int capacity, int spillThreshold) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.spillThreshold = spillThreshold;
+        this.writer = new Thread(this::writeAll, "writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues the file, waits only if the queue is full
+     *
+     * @throws IOException some previously queued file could not be written
+     */
+    @Override
+    public void write(Path path, byte[] content) throws IOException {
+        throwIfFailed();
+        enqueue(new Write(path, content, null));
+    }
+
+    /**
+     * Collects the content on the calling thread, in memory or in a spill file, and queues it once complete
+     *
+     * @throws IOException content failed or some previously queued file could not be written
+     */
+    @Override
+    public void stream(Path path, Content content) throws IOException {
+        throwIfFailed();
+        SpillingOutputStream out = new SpillingOutputStream();
+        try {
+            content.writeTo(out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            out.discard();
+            throw e;
+        }
+        if (out.spill == null) {
+            enqueue(new Write(path, out.head.toByteArray(), null));
+            return;
+        }
+        try {
+            enqueue(new Write(path, null, out.spill));
+        } catch (IOException e) {
+            out.discard();
+            throw e;
+        }
+    }
+
+    private void enqueue(Write write) throws IOException {
+        if (!queue.offer(write)) {
+            stalls.increment();
+            try {
+                queue.put(write);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the writer");
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // Every batch is flushed by the writer
+        throwIfFailed();
+    }
+
+    /**
+     * Waits until every queued file is written, then closes the underlying sink
+     *
+     * @throws IOException some file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer");
+        } finally {
+            delegate.close();
+        }
+        throwIfFailed();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s. Write queue: %d batches, at most %d files pending, downloads waited %d times",
+                delegate, batches.sum(), maxDepth, stalls.sum());
+    }
+
+    private void writeAll() {
+        List<Write> batch = new ArrayList<>(BATCH_SIZE);
+        boolean ended = false;
+        while (!ended) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                // Nobody is going to wait for the rest
+                return;
+            }
+            maxDepth = Math.max(maxDepth, batch.size() + queue.size());
+            queue.drainTo(batch, BATCH_SIZE - 1);
+
+            for (Write write : batch) {
+                if (write == END) {
+                    ended = true;
+                } else if (failure == null) {
+                    // After a failure the rest is only drained, so that downloads do not wait forever
+                    try {
+                        writeThrough(write);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                } else if (write.getSpill() != null) {
+                    deleteSpill(write.getSpill());
+                }
+            }
+            if (failure == null) {
+                try {
+                    delegate.flush();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            batches.increment();
+            batch.clear();
+        }
+    }
+
+    private void writeThrough(Write write) throws IOException {
+        if (write.getSpill() == null) {
+            delegate.write(write.getPath(), write.getContent());
+            return;
+        }
+        try {
+            delegate.stream(write.getPath(), out -> Files.copy(write.getSpill(), out));
+        } finally {
+            deleteSpill(write.getSpill());
+        }
+    }
+
+    private static void deleteSpill(Path spill) {
+        try {
+            Files.deleteIfExists(spill);
+        } catch (IOException e) {
+            // Left in the temporary directory
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("Writer failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Value
+    private static class Write {
+        Path path;
+        /**
+         * Whole content, null if it is spilled
+         */
+        byte[] content;
+        Path spill;
+    }
+
+    /**
+     * Keeps content in memory until it outgrows the threshold, then moves it into a spill file
+     */
+    private class SpillingOutputStream extends OutputStream {
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        private Path spill;
+        private OutputStream spillOut;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (spillOut == null && head.size() + len <= spillThreshold) {
+                head.write(b, off, len);
+                return;
+            }
+            if (spillOut == null) {
+                spill = Files.createTempFile("hackerrank-downloader", ".spill");
+                spillOut = new BufferedOutputStream(Files.newOutputStream(spill));
+                head.writeTo(spillOut);
+                head.reset();
+            }
+            spillOut.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spillOut != null) {
+                spillOut.close();
+            }
+        }
+
+        void discard() {
+            if (spill != null) {
+                try {
+                    close();
+                } catch (IOException e) {
+                    // Deleted anyway
+                }
+                deleteSpill(spill);
+            }
+        }
+    }
+}
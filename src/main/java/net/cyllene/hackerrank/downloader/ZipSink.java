@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.events.Events;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams all files into a single zip archive with the same layout as {@link DirectorySink}.
+ * <p>
+ * On file systems where creating a file or a directory is expensive (network shares, mostly) a single
+ * sequentially written file is much cheaper than thousands of small ones. Writes are serialized,
+ * there is exactly one writer of the archive at any time.
+ * <p>
+ * An entry cannot be replaced once written, so the first file with a given path wins and later ones
+ * are skipped. Streamed files are written straight into their entries, a file whose content fails
+ * is left truncated in the archive.
+ */
+class ZipSink implements OutputSink {
+    private final Path archive;
+    private final boolean sync;
+    private final boolean verbose;
+
+    // Guarded by this
+    private final FileChannel channel;
+    private final ZipOutputStream out;
+    private final Set<Path> directories = new HashSet<>();
+    private final Set<String> names = new HashSet<>();
+    private long entries;
+    private long duplicates;
+    private long bytes;
+    private long writingNanos;
+
+    /**
+     * @param archive zip file to be created or replaced
+     * @param sync    force the archive to disk on flush
+     * @param verbose report every entry to stdout
+     * @throws IOException archive could not be created
+     */
+    ZipSink(Path archive, boolean sync, boolean verbose) throws IOException {
+        this.archive = archive;
+        this.sync = sync;
+        this.verbose = verbose;
+        this.channel = FileChannel.open(archive,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.out = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    @Override
+    public synchronized void write(Path path, byte[] content) throws IOException {
+        String name = entryName(path);
+        if (isDuplicate(name)) {
+            return;
+        }
+
+        Object event = Events.beginWrite();
+        long startedAt = System.nanoTime();
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content);
+        out.closeEntry();
+        written(path, name, event, startedAt, content.length);
+    }
+
+    /**
+     * Writes the content straight into the entry, without collecting it in memory
+     */
+    @Override
+    public synchronized void stream(Path path, Content content) throws IOException {
+        String name = entryName(path);
+        if (isDuplicate(name)) {
+            // The content is still produced, it may be read from a response which has to be consumed
+            content.writeTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                }
+            });
+            return;
+        }
+
+        Object event = Events.beginWrite();
+        long startedAt = System.nanoTime();
+        out.putNextEntry(new ZipEntry(name));
+        EntryOutputStream entry = new EntryOutputStream(out);
+        try {
+            content.writeTo(entry);
+        } finally {
+            out.closeEntry();
+        }
+        written(path, name, event, startedAt, entry.size);
+    }
+
+    /**
+     * @return true if an entry with the name was already written
+     */
+    private boolean isDuplicate(String name) {
+        if (names.add(name)) {
+            if (verbose) {
+                System.out.println("Writing: " + archive + "!/" + name);
+            }
+            return false;
+        }
+        if (verbose) {
+            System.out.println("Skipping duplicate: " + archive + "!/" + name);
+        }
+        duplicates++;
+        return true;
+    }
+
+    private void written(Path path, String name, Object event, long startedAt, long size) {
+        writingNanos += System.nanoTime() - startedAt;
+        Events.commitWrite(event, name, "zip", size);
+
+        entries++;
+        bytes += size;
+        // Every directory the plain layout would have to create
+        Path parent = path.getParent();
+        while (parent != null && directories.add(parent)) {
+            parent = parent.getParent();
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (sync) {
+            long startedAt = System.nanoTime();
+            out.flush();
+            channel.force(false);
+            writingNanos += System.nanoTime() - startedAt;
+        }
+    }
+
+    /**
+     * Writes the central directory, the archive is not readable before that
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.finish();
+            flush();
+        } finally {
+            // The archive is useless without the central directory, but the file is closed anyway
+            try {
+                out.close();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long archiveSize;
+        try {
+            archiveSize = Files.size(archive);
+        } catch (IOException e) {
+            archiveSize = 0;
+        }
+        return String.format("Archive: %d entries, %d KB compressed to %d KB in %s, %d ms writing."
+                        + " Saved creating %d files and %d directories, skipped %d duplicates",
+                entries, bytes / 1024, archiveSize / 1024, archive,
+                TimeUnit.NANOSECONDS.toMillis(writingNanos), Math.max(0, entries - 1), directories.size(),
+                duplicates);
+    }
+
+    /**
+     * Zip entries always use forward slashes, whatever the platform separator is
+     */
+    private static String entryName(Path path) {
+        StringBuilder name = new StringBuilder();
+        for (Path element : path) {
+            if (name.length() > 0) {
+                name.append('/');
+            }
+            name.append(element);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Current entry of the archive, which stays open for the next entries
+     */
+    private static class EntryOutputStream extends FilterOutputStream {
+        private long size;
+
+        EntryOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+
+import java.io.IOException;
+
+/**
+ * Hands source code over to the {@link CodeTarget} set as an attribute of the reader, leaving the
+ * field empty. Falls back to a regular string if there is no target or if the language is not known
+ * yet, which would happen only if the server sent the code before it.
+ */
+class CodeDeserializer extends StdScalarDeserializer<String> {
+    private static final long serialVersionUID = 1L;
+
+    CodeDeserializer() {
+        super(String.class);
+    }
+
+    @Override
+    public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        CodeTarget target = (CodeTarget) ctxt.getAttribute(CodeTarget.class);
+        // Bean deserializer exposes the submission being filled in
+        Object submission = p.getCurrentValue();
+        if (target == null || !(submission instanceof SubmissionDetails)
+                || ((SubmissionDetails) submission).getLanguage() == null
+                || p.currentToken() != JsonToken.VALUE_STRING) {
+            return _parseString(p, ctxt);
+        }
+
+        // Jackson cannot read a string value piece by piece, the parser completes the value in its own
+        // segmented buffer. It is passed on from there, without building a contiguous array or a string of it.
+        target.write((SubmissionDetails) submission, p::getText);
+        return null;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.dto;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Receives source code of a submission while it is being decoded, so that it is held in memory only once,
+ * in the buffer of the parser, rather than as a string, its bytes and further copies made along the way.
+ * See {@link JsonReaders#submissionDetails(CodeTarget)}.
+ */
+public interface CodeTarget {
+    /**
+     * @param submission fields which precede the code in the document, id and language included
+     * @param code       copies the code, must be called exactly once before returning
+     * @throws IOException code could not be read or stored
+     */
+    void write(SubmissionDetails submission, Source code) throws IOException;
+
+    /**
+     * Source code which has not been read yet
+     */
+    interface Source {
+        /**
+         * Reads the code from the document and writes it in chunks, the writer is neither flushed nor closed
+         */
+        void copyTo(Writer writer) throws IOException;
+    }
+}
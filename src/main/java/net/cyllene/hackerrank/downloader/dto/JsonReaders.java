@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.dto;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Decoders of server responses into DTOs, shared by all repository implementations.
+ * <p>
+ * Readers are immutable and thread-safe. Detail endpoints wrap the object into a "model" field,
+ * which is unwrapped while streaming without building an intermediate tree.
+ */
+public final class JsonReaders {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * /rest/contests/master/submissions/
+     */
+    public static final ObjectReader SUBMISSIONS_PAGE = MAPPER.readerFor(SubmissionsCollection.class);
+    /**
+     * /rest/contests/master/challenges/{slug}
+     */
+    public static final ObjectReader CHALLENGE_DETAILS = MAPPER.readerFor(ChallengeDetails.class).at("/model");
+    /**
+     * /rest/contests/master/submissions/{id}
+     */
+    public static final ObjectReader SUBMISSION_DETAILS = MAPPER.readerFor(SubmissionDetails.class).at("/model");
+
+    /**
+     * Same as {@link #SUBMISSION_DETAILS}, but the code is passed to the target as it is read.
+     * Runtime exceptions thrown by the target are propagated as they are.
+     */
+    public static ObjectReader submissionDetails(CodeTarget target) {
+        return SUBMISSION_DETAILS.withAttribute(CodeTarget.class, target)
+                .without(DeserializationFeature.WRAP_EXCEPTIONS);
+    }
+
+    private JsonReaders() {
+    }
+
+    /**
+     * Does nothing but makes sure the readers are built, which takes a few hundred milliseconds.
+     * Lets the building start in background before the first response arrives.
+     */
+    public static void load() {
+    }
+}
@@ -46,7 +46,8 @@ public class SubmissionDetails {
     private BigDecimal score;
     private String language;
     /**
-     * Source code
+     * Source code, null if it was handed over to a {@link CodeTarget}
      */
+    @JsonDeserialize(using = CodeDeserializer.class)
     private String code;
 }
@@ -16,6 +16,7 @@
 package net.cyllene.hackerrank.downloader.dto;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
@@ -35,11 +36,14 @@ public class SubmissionSummary {
     private long createdAt;
     @JsonProperty("status_code")
     private int statusCode;
+    @JsonDeserialize(using = InternedStringDeserializer.class)
     private String status;
     @JsonProperty("hacker_id")
     private int hackerId;
+    @JsonDeserialize(using = InternedStringDeserializer.class)
     private String kind;
     private BigDecimal score;
+    @JsonDeserialize(using = InternedStringDeserializer.class)
     private String language;
     private ChallengeSummary challenge;
 }
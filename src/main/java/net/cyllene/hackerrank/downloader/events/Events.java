@@ -0,0 +1,194 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.events;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * Entry point to Java Flight Recorder events of the downloader.
+ * <p>
+ * The program still runs on Java 8 builds without Flight Recorder, so event classes are never
+ * referenced outside of this package: every method checks availability first and an event is
+ * passed around as an opaque token, null when nothing is recorded. Until Flight Recorder is started,
+ * by {@link #startRecording} or from outside (e.g. {@code -XX:StartFlightRecording}), events are not even
+ * created: registering the event classes takes about 300 ms, a large share of a short run. Later an
+ * event costs a couple of allocations and timestamps when no recording is running.
+ * <p>
+ * Typical use:
+ * <pre>{@code
+ * Object event = Events.beginWrite();
+ * Files.write(target, content);
+ * Events.commitWrite(event, target.toString(), "files", content.length);
+ * }</pre>
+ */
+public final class Events {
+    /**
+     * Flight Recorder classes are present in this JVM
+     */
+    private static final boolean PRESENT = isPresent();
+
+    private Events() {
+    }
+
+    /**
+     * @return true if this JVM has Flight Recorder and it may be used
+     */
+    public static boolean isAvailable() {
+        return PRESENT && FlightRecorder.isAvailable();
+    }
+
+    private static boolean isPresent() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if Flight Recorder has been started, events are worth creating
+     */
+    private static boolean isStarted() {
+        return PRESENT && FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Starts recording of the whole run with the profiling configuration of the JVM
+     *
+     * @param destination file written when the returned recording is closed
+     * @return running recording
+     * @throws IOException Flight Recorder is not available or the recording could not be started
+     */
+    public static Closeable startRecording(Path destination) throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("Java Flight Recorder is not available in this JVM");
+        }
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch (ParseException e) {
+            throw new IOException("Broken profiling configuration: " + e.getMessage(), e);
+        }
+        recording.setName("hackerrank-downloader");
+        recording.setToDisk(true);
+        recording.setDestination(destination);
+        // A run ending with an error is worth looking at too
+        recording.setDumpOnExit(true);
+        recording.start();
+        return () -> {
+            // Stopping writes the recording to its destination
+            recording.stop();
+            recording.close();
+        };
+    }
+
+    public static Object beginRequest() {
+        if (!isStarted()) {
+            return null;
+        }
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event  token returned by {@link #beginRequest()}
+     * @param type   kind of requested document
+     * @param status HTTP status, 0 if there is no response
+     * @param bytes  declared length of response body, -1 if unknown
+     */
+    public static void commitRequest(Object event, String type, String url, int status, long bytes) {
+        if (event == null) {
+            return;
+        }
+        HttpRequestEvent requestEvent = (HttpRequestEvent) event;
+        requestEvent.end();
+        if (requestEvent.shouldCommit()) {
+            requestEvent.type = type;
+            requestEvent.url = url;
+            requestEvent.status = status;
+            requestEvent.bytes = bytes;
+            requestEvent.commit();
+        }
+    }
+
+    public static Object beginDecode() {
+        if (!isStarted()) {
+            return null;
+        }
+        JsonDecodeEvent event = new JsonDecodeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event  token returned by {@link #beginDecode()}
+     * @param type   kind of decoded document
+     * @param cached document was read from response cache
+     * @param bytes  size of the document, -1 if unknown
+     */
+    public static void commitDecode(Object event, String type, String url, boolean cached, long bytes) {
+        if (event == null) {
+            return;
+        }
+        JsonDecodeEvent decodeEvent = (JsonDecodeEvent) event;
+        decodeEvent.end();
+        if (decodeEvent.shouldCommit()) {
+            decodeEvent.type = type;
+            decodeEvent.url = url;
+            decodeEvent.cached = cached;
+            decodeEvent.bytes = bytes;
+            decodeEvent.commit();
+        }
+    }
+
+    public static Object beginWrite() {
+        if (!isStarted()) {
+            return null;
+        }
+        FileWriteEvent event = new FileWriteEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param event token returned by {@link #beginWrite()}
+     * @param path  written file
+     * @param sink  kind of output, files or zip
+     * @param bytes size of the file
+     */
+    public static void commitWrite(Object event, String path, String sink, long bytes) {
+        if (event == null) {
+            return;
+        }
+        FileWriteEvent writeEvent = (FileWriteEvent) event;
+        writeEvent.end();
+        if (writeEvent.shouldCommit()) {
+            writeEvent.path = path;
+            writeEvent.sink = sink;
+            writeEvent.bytes = bytes;
+            writeEvent.commit();
+        }
+    }
+}
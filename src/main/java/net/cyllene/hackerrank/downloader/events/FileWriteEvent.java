@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Writing of a downloaded file into the output, directories and links included
+ */
+@Name("net.cyllene.hackerrank.FileWrite")
+@Label("File Write")
+@Category("Hackerrank Downloader")
+class FileWriteEvent extends Event {
+    @Label("Path")
+    String path;
+
+    @Label("Sink")
+    String sink;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A single attempt of an HTTP request, from sending it to receiving response headers
+ */
+@Name("net.cyllene.hackerrank.HttpRequest")
+@Label("HTTP Request")
+@Category("Hackerrank Downloader")
+@Description("Time from sending a request to receiving response headers, connection setup included")
+class HttpRequestEvent extends Event {
+    @Label("Type")
+    @Description("submissions, submission or challenge")
+    String type;
+
+    @Label("URL")
+    String url;
+
+    @Label("Status")
+    @Description("HTTP status code, 0 if the request failed without response")
+    int status;
+
+    @Label("Content Length")
+    @Description("Declared length of response body, -1 if unknown")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Decoding of a JSON document into a DTO. Documents are decoded while streamed, so the duration
+ * includes reading of the response body from network or from cache.
+ */
+@Name("net.cyllene.hackerrank.JsonDecode")
+@Label("JSON Decode")
+@Category("Hackerrank Downloader")
+@Description("Reading and decoding of a JSON document")
+class JsonDecodeEvent extends Event {
+    @Label("Type")
+    @Description("submissions, submission or challenge")
+    String type;
+
+    @Label("URL")
+    String url;
+
+    @Label("Cached")
+    @Description("Document was read from response cache")
+    boolean cached;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
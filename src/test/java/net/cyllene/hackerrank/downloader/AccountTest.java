@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class AccountTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void batchFileShouldBeParsed() throws Exception {
+        Path file = Files.write(directory.resolve("team.txt"), Arrays.asList(
+                "# name session directory",
+                "alice  secret1\tout/alice",
+                "",
+                "bob secret2 out/bob smith"));
+
+        List<Account> accounts = Account.load(file);
+
+        assertThat(accounts).extracting(Account::getName).containsExactly("alice", "bob");
+        assertThat(accounts).extracting(Account::getSecretKey).containsExactly("secret1", "secret2");
+        assertThat(accounts.get(1).getOutputDir().isAbsolute()).isTrue();
+        assertThat(accounts.get(1).getOutputDir().toString()).endsWith("bob smith");
+        assertThat(accounts.get(0).toString()).doesNotContain("secret1");
+    }
+
+    @Test
+    void malformedBatchFileShouldBeRejected() throws Exception {
+        Path incomplete = Files.write(directory.resolve("incomplete.txt"), Arrays.asList("alice secret1"));
+        Path sharedDirectory = Files.write(directory.resolve("shared.txt"), Arrays.asList(
+                "alice secret1 out", "bob secret2 out"));
+
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> Account.load(incomplete))
+                .withMessageContaining("incomplete.txt:1");
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> Account.load(sharedDirectory))
+                .withMessageContaining("another account");
+    }
+}
@@ -67,6 +67,88 @@ public class ArgumentParserTest {
         assertThat(settings.getOffset()).isEqualTo(463);
     }
 
+    @Test
+    public void threadsOptionShouldBeParsed() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--threads", "8"});
+
+        assertThat(settings.getThreads()).isEqualTo(8);
+    }
+
+    @Test
+    public void threadsOptionShouldRejectNonPositiveValues() {
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(
+                        new String[]{"-t", "0"})
+        )
+                .withMessageStartingWith("Incorrect number of threads");
+    }
+
+    @Test
+    public void connectionPoolShouldFollowThreadsByDefault() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--threads", "8"});
+
+        assertThat(settings.getMaxConnections()).isEqualTo(9);
+        assertThat(settings.getMaxConnectionsPerRoute()).isEqualTo(9);
+    }
+
+    @Test
+    public void connectionOptionsShouldBeParsed() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--max-connections", "20", "--max-connections-per-route", "5",
+                        "--connect-timeout", "3", "--read-timeout", "7", "--request-timeout", "11"});
+
+        assertThat(settings.getMaxConnections()).isEqualTo(20);
+        assertThat(settings.getMaxConnectionsPerRoute()).isEqualTo(5);
+        assertThat(settings.getConnectTimeout()).isEqualTo(3);
+        assertThat(settings.getReadTimeout()).isEqualTo(7);
+        assertThat(settings.getRequestTimeout()).isEqualTo(11);
+    }
+
+    @Test
+    public void engineOptionShouldBeParsed() {
+        assertThat(CommandLineDispatcher.INSTANCE.parseArguments(new String[]{}).getEngine())
+                .isEqualTo(Settings.Engine.BLOCKING);
+        assertThat(CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--engine", "async"}).getEngine())
+                .isEqualTo(Settings.Engine.ASYNC);
+        assertThat(CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--engine", "virtual"}).getEngine())
+                .isEqualTo(Settings.Engine.VIRTUAL);
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--engine", "turbo"}))
+                .withMessageStartingWith("Incorrect engine");
+    }
+
+    @Test
+    public void zipFormatShouldBeParsed() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--format", "zip", "--directory", "custom-out"});
+
+        assertThat(settings.getFormat()).isEqualTo(Settings.Format.ZIP);
+        assertThat(settings.getArchivePath().getFileName().toString()).isEqualTo("custom-out.zip");
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--format", "zip", "--sync"}))
+                .withMessageStartingWith("--sync");
+    }
+
+    @Test
+    public void syncOptionShouldNotAcceptOffset() {
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(
+                        new String[]{"--sync", "--offset", "10"})
+        )
+                .withMessageStartingWith("--sync");
+    }
+
+    @Test
+    public void syncOptionShouldNotAcceptLimit() {
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(
+                        new String[]{"--sync", "--limit", "10"})
+        )
+                .withMessageStartingWith("--sync");
+    }
+
     @Test
     public void directoryOptionShouldBeConsidered() {
         Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
@@ -88,4 +170,57 @@ public class ArgumentParserTest {
         assertThat(settings.getOutputDir().isAbsolute()).isTrue();
     }
 
+    @Test
+    public void batchOptionShouldNotAcceptDirectory() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--batch", "team.txt"});
+
+        assertThat(settings.getBatchFile().isAbsolute()).isTrue();
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(
+                        new String[]{"--batch", "team.txt", "-d", "custom-out"})
+        )
+                .withMessageContaining("--batch");
+    }
+
+    @Test
+    public void shardOptionShouldBeParsed() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--shard", "2/4", "-d", "custom-out"});
+
+        assertThat(settings.getShard()).isEqualTo(new Shard(2, 4));
+        assertThat(settings.forShard().getOutputDir().toString()).endsWith("custom-out.shard-2-of-4");
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(
+                        new String[]{"--shard", "5/4"})
+        )
+                .withMessageStartingWith("Incorrect shard");
+    }
+
+    @Test
+    public void selectOptionShouldBeParsed() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--select", "best-score"});
+
+        assertThat(settings.getSelection()).isEqualTo(Settings.Selection.BEST_SCORE);
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--select", "first"}))
+                .withMessageStartingWith("Incorrect selection");
+    }
+
+    @Test
+    public void retryOptionsShouldBeParsed() {
+        Settings settings = CommandLineDispatcher.INSTANCE.parseArguments(
+                new String[]{"--retry-failed", "--retries", "0"});
+
+        assertThat(settings.isRetryFailed()).isTrue();
+        assertThat(settings.getRetries()).isZero();
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--retry-failed", "--sync"}))
+                .withMessageStartingWith("--retry-failed");
+        assertThatExceptionOfType(ExitWithErrorException.class).isThrownBy(
+                () -> CommandLineDispatcher.INSTANCE.parseArguments(new String[]{"--retries", "-1"}))
+                .withMessageStartingWith("Incorrect number of retries");
+    }
+
 }
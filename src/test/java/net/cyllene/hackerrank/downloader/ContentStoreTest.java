@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentStoreTest {
+
+    @TempDir
+    Path outputDir;
+
+    @Test
+    void identicalContentShouldBeStoredOnce() throws Exception {
+        ContentStore store = new ContentStore(outputDir.resolve(Settings.OBJECTS_DIRNAME));
+        byte[] code = "print(42)".getBytes(StandardCharsets.UTF_8);
+
+        Path first = outputDir.resolve("1.python3");
+        Path second = outputDir.resolve("2.python3");
+        store.write(code, first);
+        store.write(code, second);
+        // Rewriting an existing file must not fail
+        store.write(code, second);
+
+        assertThat(Files.readAllBytes(first)).isEqualTo(code);
+        assertThat(Files.readAllBytes(second)).isEqualTo(code);
+        assertThat(Files.isSameFile(first, second)).isTrue();
+        assertThat(store.getDeduplicationRatio()).isEqualTo(3.0);
+    }
+
+    @Test
+    void differentContentShouldNotBeShared() throws Exception {
+        ContentStore store = new ContentStore(outputDir.resolve(Settings.OBJECTS_DIRNAME));
+
+        Path first = outputDir.resolve("1.java");
+        Path second = outputDir.resolve("2.java");
+        store.write("class A {}".getBytes(StandardCharsets.UTF_8), first);
+        store.write("class B {}".getBytes(StandardCharsets.UTF_8), second);
+
+        assertThat(Files.isSameFile(first, second)).isFalse();
+        assertThat(store.getDeduplicationRatio()).isEqualTo(1.0);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeadLettersTest {
+
+    @TempDir
+    Path outputDir;
+
+    @Test
+    void failuresShouldSurviveStoreAndLoad() throws Exception {
+        DeadLetters deadLetters = new DeadLetters();
+        deadLetters.descriptionFailed("a", "HttpResponseException: status code: 500");
+        deadLetters.submissionFailed("a", 1, "SocketTimeoutException: Read timed out");
+        deadLetters.submissionFailed("b", 2, "Connection\nreset");
+        deadLetters.store(outputDir, new Watermark(2, 1600000000));
+
+        DeadLetters loaded = DeadLetters.load(outputDir);
+
+        assertThat(loaded.size()).isEqualTo(3);
+        assertThat(loaded.getListing()).isEqualTo(new Watermark(2, 1600000000));
+        assertThat(loaded.getDescriptions()).containsExactly("a");
+        assertThat(loaded.getSubmissions()).hasToString("{a=[1], b=[2]}");
+
+        DeadLetters.delete(outputDir);
+        assertThat(DeadLetters.load(outputDir)).isNull();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FairSchedulerTest {
+
+    @Test
+    void lanesShouldTakeTurns() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (FairScheduler scheduler = new FairScheduler(1)) {
+            ExecutorService busy = scheduler.newLane("busy");
+            ExecutorService quiet = scheduler.newLane("quiet");
+
+            busy.execute(() -> {
+                started.countDown();
+                await(release);
+                order.add("busy");
+            });
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                busy.execute(() -> order.add("busy"));
+            }
+            quiet.execute(() -> order.add("quiet"));
+            release.countDown();
+
+            busy.shutdown();
+            quiet.shutdown();
+            assertThat(busy.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(quiet.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        // The quiet lane waits for a single task of the busy one, not for all of them
+        assertThat(order).containsExactly("busy", "busy", "quiet", "busy", "busy");
+    }
+
+    @Test
+    void shutdownOfLaneShouldNotAffectOthers() throws Exception {
+        try (FairScheduler scheduler = new FairScheduler(1)) {
+            ExecutorService first = scheduler.newLane("first");
+            ExecutorService second = scheduler.newLane("second");
+
+            first.shutdownNow();
+
+            assertThat(second.submit(() -> 42).get(10, TimeUnit.SECONDS)).isEqualTo(42);
+            assertThat(first.isTerminated()).isTrue();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
+import net.cyllene.hackerrank.downloader.dto.CodeTarget;
+import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
+import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class HackerrankDownloaderTest {
+    private static final String SLUG = "solve-me-first";
+
+    @TempDir
+    Path tempDir;
+
+    private Settings settings;
+
+    @BeforeEach
+    void init() {
+        settings = new Settings();
+        settings.setOutputDir(tempDir.resolve("hackerrank_challenges"));
+        settings.setThreads(4);
+    }
+
+    @Test
+    void submissionsOfChallengeShouldBeStolenByIdleWorkers() {
+        // Released only when two submissions of the single challenge are downloaded at the same time
+        CountDownLatch concurrent = new CountDownLatch(2);
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        StubRepository dc = new StubRepository(8) {
+            @Override
+            SubmissionDetails getSubmissionDetails(long id, CodeTarget target) throws IOException {
+                threads.add(Thread.currentThread().getName());
+                concurrent.countDown();
+                await(concurrent);
+                return super.getSubmissionDetails(id, target);
+            }
+        };
+
+        new HackerrankDownloader(settings, dc).run();
+
+        assertThat(concurrent.getCount()).isZero();
+        assertThat(threads.size()).isGreaterThan(1);
+        assertThat(solution(8)).exists();
+    }
+
+    @Test
+    void submissionsShouldStartAfterDescription() {
+        Set<Long> tooEarly = ConcurrentHashMap.newKeySet();
+        StubRepository dc = new StubRepository(8) {
+            private volatile boolean described;
+
+            @Override
+            public ChallengeDetails getChallengeDetails(String slug) throws IOException {
+                ChallengeDetails details = super.getChallengeDetails(slug);
+                described = true;
+                return details;
+            }
+
+            @Override
+            SubmissionDetails getSubmissionDetails(long id, CodeTarget target) throws IOException {
+                if (!described) {
+                    tooEarly.add(id);
+                }
+                return super.getSubmissionDetails(id, target);
+            }
+        };
+
+        new HackerrankDownloader(settings, dc).run();
+
+        assertThat(tooEarly).isEmpty();
+        assertThat(settings.getOutputDir().resolve(SLUG).resolve("problem_description").resolve("english.html"))
+                .exists();
+    }
+
+    @Test
+    void failedSubmissionShouldNotStopItsSiblings() throws Exception {
+        StubRepository dc = new StubRepository(8) {
+            @Override
+            SubmissionDetails getSubmissionDetails(long id, CodeTarget target) throws IOException {
+                if (id == 3) {
+                    throw new IOException("Connection reset");
+                }
+                return super.getSubmissionDetails(id, target);
+            }
+        };
+
+        new HackerrankDownloader(settings, dc).run();
+
+        for (long id = 1; id <= 8; id++) {
+            if (id == 3) {
+                assertThat(solution(id)).doesNotExist();
+            } else {
+                assertThat(solution(id)).exists();
+            }
+        }
+        DeadLetters deadLetters = DeadLetters.load(settings.getOutputDir());
+        assertThat(deadLetters.size()).isEqualTo(1);
+        assertThat(deadLetters.getSubmissions()).hasToString("{" + SLUG + "=[3]}");
+    }
+
+    @Test
+    void fatalErrorOnAnotherWorkerShouldReachCallerAsIs() {
+        Set<String> describedOn = ConcurrentHashMap.newKeySet();
+        StubRepository dc = new StubRepository(32) {
+            @Override
+            public ChallengeDetails getChallengeDetails(String slug) throws IOException {
+                describedOn.add(Thread.currentThread().getName());
+                return super.getChallengeDetails(slug);
+            }
+
+            @Override
+            SubmissionDetails getSubmissionDetails(long id, CodeTarget target) throws IOException {
+                // Only stolen submissions fail, the challenge itself runs where it was described
+                if (!describedOn.contains(Thread.currentThread().getName())) {
+                    throw new ExitWithErrorException("Unable to write " + id + ": disk full");
+                }
+                sleep();
+                return super.getSubmissionDetails(id, target);
+            }
+        };
+
+        assertThatExceptionOfType(ExitWithErrorException.class)
+                .isThrownBy(() -> new HackerrankDownloader(settings, dc).run())
+                .withMessageStartingWith("Unable to write ")
+                .withMessageEndingWith(": disk full");
+    }
+
+    private Path solution(long id) {
+        return settings.getOutputDir().resolve(SLUG).resolve("accepted_solutions").resolve(id + ".java");
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void sleep() throws IOException {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Lists a single challenge with submissions numbered from 1 and serves them without a server
+     */
+    private static class StubRepository extends ChallengesRepository {
+        private final int submissions;
+
+        StubRepository(int submissions) {
+            this.submissions = submissions;
+        }
+
+        @Override
+        Watermark getSubmissionsList(int offset, int limit, Executor executor, SubmissionSelector selector,
+                                     Consumer<SubmissionIndex> pageConsumer) {
+            SubmissionIndex page = new SubmissionIndex();
+            for (long id = 1; id <= submissions; id++) {
+                page.add(SLUG, id);
+            }
+            pageConsumer.accept(page);
+            return new Watermark(submissions, 0);
+        }
+
+        @Override
+        public ChallengeDetails getChallengeDetails(String slug) throws IOException {
+            ChallengeDetails details = new ChallengeDetails();
+            details.setSlug(slug);
+            details.setBodyHtml("<p>Sum two numbers</p>");
+            return details;
+        }
+
+        @Override
+        SubmissionDetails getSubmissionDetails(long id, CodeTarget target) throws IOException {
+            SubmissionDetails details = new SubmissionDetails();
+            details.setId(id);
+            details.setLanguage("java");
+            details.setCode("class Solution" + id + " {}");
+            return details;
+        }
+    }
+}
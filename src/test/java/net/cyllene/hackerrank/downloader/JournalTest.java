@@ -0,0 +1,74 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class JournalTest {
+
+    @TempDir
+    Path outputDir;
+
+    @Test
+    void tornRecordShouldBeIgnored() throws Exception {
+        try (Journal journal = Journal.open(outputDir, false)) {
+            journal.record(Paths.get("a", "accepted_solutions", "1.java"));
+        }
+        // Interrupted in the middle of the second record
+        Files.write(outputDir.resolve(Settings.JOURNAL_FILENAME), "b/accepted_sol".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertThat(Journal.load(outputDir)).containsExactly(Paths.get("a", "accepted_solutions", "1.java"));
+
+        try (Journal journal = Journal.open(outputDir, true)) {
+            journal.record(Paths.get("c", "accepted_solutions", "3.java"));
+        }
+
+        // The torn record is dropped when the journal is continued, the new one is kept whole
+        assertThat(Journal.load(outputDir)).containsExactly(Paths.get("a", "accepted_solutions", "1.java"),
+                Paths.get("c", "accepted_solutions", "3.java"));
+        assertThat(Journal.load(outputDir.resolve("missing"))).isNull();
+    }
+
+    @Test
+    void sinkShouldRecordOnlyCompleteFiles() throws Exception {
+        Path complete = Paths.get("a", "accepted_solutions", "1.java");
+        Path failed = Paths.get("a", "accepted_solutions", "2.java");
+        try (Journal journal = Journal.open(outputDir, false);
+             DirectorySink sink = new DirectorySink(outputDir, null, journal, false, false)) {
+            sink.stream(complete, out -> out.write("class A {}".getBytes(StandardCharsets.UTF_8)));
+            assertThatExceptionOfType(IOException.class).isThrownBy(() -> sink.stream(failed, out -> {
+                out.write("class".getBytes(StandardCharsets.UTF_8));
+                throw new IOException("Connection reset");
+            }));
+        }
+
+        assertThat(Journal.load(outputDir)).containsExactly(complete);
+        assertThat(outputDir.resolve(complete)).hasContent("class A {}");
+        assertThat(outputDir.resolve(failed)).doesNotExist();
+        assertThat(DirectorySink.partOf(outputDir.resolve(failed))).doesNotExist();
+    }
+}
@@ -17,27 +17,40 @@ package net.cyllene.hackerrank.downloader;
 
 import net.cyllene.hackerrank.downloader.dto.ChallengeDetails;
 import net.cyllene.hackerrank.downloader.dto.SubmissionDetails;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.message.BasicStatusLine;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class JsonParsersTest {
@@ -54,6 +67,7 @@ public class JsonParsersTest {
         dc = ChallengesRepository.INSTANCE;
         dc.setSettings(new Settings()); // Defaults
         dc.setHttpClient(mockHttpClient);
+        dc.setResponseCache(null);
     }
 
     @Test
@@ -69,15 +83,63 @@ public class JsonParsersTest {
         downloadEverything.setAcceptedOnly(false);
         dc.setSettings(downloadEverything);
 
-        Map<String, List<Long>> result = dc.getSubmissionsList(0, 10);
+        SubmissionIndex result = dc.getSubmissionsList(0, 10);
         // There are 3 valid challenges in the sample json file
-        assertThat(result.values().stream().flatMap(List::stream).collect(Collectors.toSet())).hasSize(3);
+        assertThat(result.getSubmissionCount()).isEqualTo(3);
 
         // Grouped into 2 challenges
-        assertThat(result).hasSize(2);
+        assertThat(result.getChallengeCount()).isEqualTo(2);
 
         // One of them is "birthday-cake-candles"
-        assertThat(result).containsKey("birthday-cake-candles");
+        assertThat(result.getSubmissionIds("birthday-cake-candles")).containsExactly(92273619L, 92273476L);
+    }
+
+    @Test
+    void submissionsListShouldBeRequestedInPages() throws Exception {
+        String responseBody = getFakeData("/submissions_list_sample.json")
+                .replace("\"total\": 3", "\"total\": 250");
+
+        List<String> requestedUrls = new ArrayList<>();
+        when(mockHttpClient.execute(any(HttpUriRequest.class)))
+                .thenAnswer(invocation -> {
+                    requestedUrls.add(invocation.getArgument(0, HttpUriRequest.class).getURI().toString());
+                    return prepareFakeSuccessResponse(responseBody);
+                });
+
+        List<SubmissionIndex> pages = new ArrayList<>();
+        // Pages are requested on the calling thread, in order
+        dc.getSubmissionsList(0, 65535, Runnable::run, pages::add);
+
+        // Probe page, then the remaining 150 submissions in pages of 100
+        assertThat(pages).hasSize(3);
+        assertThat(requestedUrls).containsExactly(
+                Settings.BASE_URL + "/rest/contests/master/submissions/?offset=0&limit=100",
+                Settings.BASE_URL + "/rest/contests/master/submissions/?offset=100&limit=100",
+                Settings.BASE_URL + "/rest/contests/master/submissions/?offset=200&limit=50");
+    }
+
+    @Test
+    void syncShouldStopPagingAtKnownSubmissions() throws Exception {
+        String responseBody = getFakeData("/submissions_list_sample.json")
+                .replace("\"total\": 3", "\"total\": 250");
+
+        when(mockHttpClient.execute(any(HttpUriRequest.class)))
+                .thenAnswer(invocation -> prepareFakeSuccessResponse(responseBody));
+
+        Settings downloadEverything = new Settings();
+        downloadEverything.setAcceptedOnly(false);
+        dc.setSettings(downloadEverything);
+
+        List<SubmissionIndex> pages = new ArrayList<>();
+        Watermark newest = dc.getSubmissionsNewerThan(new Watermark(92273476L, 0), 65535, pages::add);
+
+        // Only the newest submission is listed, and the first page already contains a known one
+        verify(mockHttpClient, times(1)).execute(any(HttpUriRequest.class));
+        assertThat(pages).hasSize(1);
+        assertThat(pages.get(0).getChallengeCount()).isEqualTo(1);
+        assertThat(pages.get(0).getSubmissionIds("birthday-cake-candles")).containsExactly(92273619L);
+        assertThat(newest.getId()).isEqualTo(92273619L);
+        assertThat(newest.getCreatedAt()).isEqualTo(1544049532L);
     }
 
     @Test
@@ -96,6 +158,30 @@ public class JsonParsersTest {
         assertThat(challenge.getBodyHtml()).contains("challenge_problem_statement");
     }
 
+    @Test
+    void cachedChallengeDetailsShouldBeRevalidated(@TempDir Path cacheDir) throws Exception {
+        String responseBody = getFakeData("/challenge_details_sample.json");
+        HttpResponse fullResponse = prepareFakeSuccessResponse(responseBody);
+        fullResponse.setHeader(HttpHeaders.ETAG, "\"v1\"");
+        HttpResponse notModified = new BasicHttpResponse(new BasicStatusLine(
+                new ProtocolVersion("HTTP", 1, 1), HttpStatus.SC_NOT_MODIFIED, ""));
+
+        ArgumentCaptor<HttpUriRequest> requests = ArgumentCaptor.forClass(HttpUriRequest.class);
+        when(mockHttpClient.execute(requests.capture()))
+                .thenReturn(fullResponse)
+                .thenReturn(notModified);
+
+        // Zero TTL makes every entry stale
+        dc.setResponseCache(new ResponseCache(cacheDir, 0, 1024 * 1024));
+
+        ChallengeDetails first = dc.getChallengeDetails("stub-slug");
+        ChallengeDetails second = dc.getChallengeDetails("stub-slug");
+
+        assertThat(second).isEqualTo(first);
+        assertThat(requests.getAllValues().get(1).getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue())
+                .isEqualTo("\"v1\"");
+    }
+
     @Test
     void submissionCodeShouldBeAvailable() throws Exception {
         String responseBody = getFakeData("/submission_details_sample.json");
@@ -116,13 +202,63 @@ public class JsonParsersTest {
                 .contains("multiline");
     }
 
+    @Test
+    void submissionCodeShouldBeStreamedToTarget() throws Exception {
+        HttpResponse response = prepareFakeSuccessResponse(getFakeData("/submission_details_sample.json"));
+
+        when(mockHttpClient.execute(any(HttpUriRequest.class)))
+                .thenReturn(response);
+
+        List<String> languages = new ArrayList<>();
+        StringWriter code = new StringWriter();
+        SubmissionDetails submissionDetails = dc.getSubmissionDetails(92273619, (submission, source) -> {
+            languages.add(submission.getLanguage());
+            source.copyTo(code);
+        });
+
+        // Language precedes the code in the response, fields after it are decoded as usual
+        assertThat(languages).containsExactly("go");
+        assertThat(submissionDetails.getCode()).isNull();
+        assertThat(submissionDetails.getCreatedAt().toLocalDate()).isEqualTo(LocalDate.of(2018, 12, 5));
+        assertThat(code.toString())
+                .contains("source code")
+                .contains("multiline");
+    }
+
+    @Test
+    void asyncEngineShouldParseDetailsAndRetryThrottledRequests() throws Exception {
+        HttpResponse throttled = new BasicHttpResponse(new BasicStatusLine(
+                new ProtocolVersion("HTTP", 1, 1), RequestGovernor.SC_TOO_MANY_REQUESTS, ""));
+        throttled.setHeader(HttpHeaders.RETRY_AFTER, "0");
+        HttpResponse response = prepareFakeSuccessResponse(getFakeData("/submission_details_sample.json"));
+
+        CloseableHttpAsyncClient mockAsyncClient = mock(CloseableHttpAsyncClient.class);
+        List<HttpResponse> responses = new ArrayList<>(Arrays.asList(throttled, response));
+        when(mockAsyncClient.execute(any(HttpUriRequest.class), any()))
+                .thenAnswer(invocation -> {
+                    FutureCallback<HttpResponse> callback = invocation.getArgument(1);
+                    callback.completed(responses.remove(0));
+                    return null;
+                });
+
+        RequestGovernor governor = new RequestGovernor(0, 2, 1, false);
+        try (AsyncChallengesRepository asyncDc = new AsyncChallengesRepository(mockAsyncClient, new Settings(), governor)) {
+            SubmissionDetails submissionDetails = asyncDc.getSubmissionDetails(92273619).get(10, TimeUnit.SECONDS);
+
+            assertThat(submissionDetails.getId()).isEqualTo(92273619);
+            assertThat(submissionDetails.getCode()).contains("source code");
+        }
+        assertThat(governor.getRetries()).isEqualTo(1);
+        verify(mockAsyncClient, times(2)).execute(any(HttpUriRequest.class), any());
+    }
+
     private HttpResponse prepareFakeSuccessResponse(String expectedResponseBody) {
         int okCode = 200;
         HttpResponse response = new BasicHttpResponse(new BasicStatusLine(
                 new ProtocolVersion("HTTP", 1, 1), okCode, ""));
         response.setStatusCode(okCode);
         try {
-            response.setEntity(new StringEntity(expectedResponseBody));
+            response.setEntity(new StringEntity(expectedResponseBody, ContentType.APPLICATION_JSON));
         } catch (Exception e) {
             e.printStackTrace();
         }
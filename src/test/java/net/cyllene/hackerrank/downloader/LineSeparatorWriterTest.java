@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LineSeparatorWriterTest {
+
+    @Test
+    void lineFeedsShouldBeReplacedInEveryKindOfWrite() throws IOException {
+        StringWriter result = new StringWriter();
+        Writer writer = new LineSeparatorWriter(result, "\r\n");
+
+        writer.write("a\nb\n".toCharArray(), 0, 4);
+        writer.write('\n');
+        writer.write("x\ny\nz", 1, 3);
+        writer.write("\n\nend");
+
+        assertThat(result.toString()).isEqualTo("a\r\nb\r\n\r\n\r\ny\r\n\r\n\r\nend");
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class RequestGovernorTest {
+
+    @Test
+    void throttledRequestShouldBeRetriedAfterRequestedDelay() throws Exception {
+        RequestGovernor governor = new RequestGovernor(0, 8, 3, false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        long startedAt = System.nanoTime();
+        HttpResponse response = governor.execute(() -> attempts.incrementAndGet() == 1
+                ? response(RequestGovernor.SC_TOO_MANY_REQUESTS, "1")
+                : response(HttpStatus.SC_OK, null));
+
+        assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+        assertThat(attempts).hasValue(2);
+        assertThat(System.nanoTime() - startedAt).isGreaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(1));
+        assertThat(governor.getThrottled()).isEqualTo(1);
+        assertThat(governor.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void throttledResponseShouldBeReturnedWhenRetriesAreExhausted() throws Exception {
+        RequestGovernor governor = new RequestGovernor(0, 8, 1, false);
+
+        HttpResponse response = governor.execute(() -> response(HttpStatus.SC_SERVICE_UNAVAILABLE, "0"));
+
+        assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+        assertThat(governor.getRetries()).isEqualTo(1);
+    }
+
+    @Test
+    void serverErrorShouldBeRetried() throws Exception {
+        RequestGovernor governor = new RequestGovernor(0, 8, 0, 2, false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        HttpResponse response = governor.execute(() -> attempts.incrementAndGet() == 1
+                ? response(HttpStatus.SC_INTERNAL_SERVER_ERROR, null)
+                : response(HttpStatus.SC_OK, null));
+
+        assertThat(response.getStatusLine().getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+        assertThat(attempts).hasValue(2);
+        assertThat(governor.getFailed()).isEqualTo(1);
+    }
+
+    @Test
+    void failedRequestShouldBeThrownWhenRetriesAreExhausted() {
+        RequestGovernor governor = new RequestGovernor(0, 8, 0, 1, false);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatExceptionOfType(IOException.class).isThrownBy(() -> governor.execute(() -> {
+            attempts.incrementAndGet();
+            throw new IOException("Connection reset");
+        })).withMessage("Connection reset");
+        assertThat(attempts).hasValue(2);
+    }
+
+    @Test
+    void asyncSlotShouldBeGrantedWhenAnotherOneIsFreed() throws Exception {
+        RequestGovernor governor = new RequestGovernor(0, 1, 0, false);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CompletableFuture<Void> first = governor.acquireAsync(timer);
+            CompletableFuture<Void> second = governor.acquireAsync(timer);
+
+            // The caller is not blocked, the second request is pending until the first one completes
+            assertThat(first).isDone();
+            assertThat(second).isNotDone();
+
+            governor.onFailure();
+            second.get(5, TimeUnit.SECONDS);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void requestsShouldNotExceedRateLimit() throws Exception {
+        long startedAt = System.nanoTime();
+        RequestGovernor governor = new RequestGovernor(20, 8, 0, false);
+
+        for (int i = 0; i < 5; i++) {
+            governor.execute(() -> response(HttpStatus.SC_OK, null));
+        }
+
+        // Four intervals of 50 ms between five requests
+        assertThat(System.nanoTime() - startedAt).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    private static HttpResponse response(int status, String retryAfter) {
+        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+                new ProtocolVersion("HTTP", 1, 1), status, ""));
+        if (retryAfter != null) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        return response;
+    }
+}
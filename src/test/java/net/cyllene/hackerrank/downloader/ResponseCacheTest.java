@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class ResponseCacheTest {
+    private static final String URL = "/rest/contests/master/challenges/mini-max-sum";
+
+    @TempDir
+    Path cacheDir;
+
+    @Test
+    void storedEntryShouldBeFreshWithinTtl() throws Exception {
+        ResponseCache cache = new ResponseCache(cacheDir, TimeUnit.HOURS.toMillis(1), 1024 * 1024);
+
+        assertThat(cache.lookup(URL)).isNull();
+        Path body = cache.store(URL, response("{\"model\":{}}", "\"v1\""));
+
+        ResponseCache.Entry entry = cache.lookup(URL);
+        assertThat(entry).isNotNull();
+        assertThat(cache.isFresh(entry)).isTrue();
+        assertThat(cache.hit(entry)).isEqualTo(body);
+        assertThat(new String(Files.readAllBytes(body), StandardCharsets.UTF_8)).isEqualTo("{\"model\":{}}");
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void staleEntryShouldProvideValidators() throws Exception {
+        ResponseCache cache = new ResponseCache(cacheDir, 0, 1024 * 1024);
+        cache.store(URL, response("{}", "\"v1\""));
+
+        // Entries survive between runs
+        ResponseCache reopened = new ResponseCache(cacheDir, 0, 1024 * 1024);
+        ResponseCache.Entry entry = reopened.lookup(URL);
+
+        assertThat(reopened.isFresh(entry)).isFalse();
+        assertThat(reopened.validatorsOf(entry))
+                .extracting(Header::getName, Header::getValue)
+                .contains(tuple(HttpHeaders.IF_NONE_MATCH, "\"v1\""));
+        assertThat(reopened.getSize()).isEqualTo(2);
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesShouldBeEvicted() throws Exception {
+        ResponseCache cache = new ResponseCache(cacheDir, TimeUnit.HOURS.toMillis(1), 25);
+        String body = "{\"model\":\"0123456789\"}"; // 22 bytes
+
+        cache.store("/first", response(body, null));
+        cache.store("/second", response(body, null));
+
+        assertThat(cache.lookup("/first")).isNull();
+        assertThat(cache.lookup("/second")).isNotNull();
+        assertThat(cache.getSize()).isEqualTo(body.length());
+    }
+
+    private static HttpResponse response(String body, String etag) {
+        HttpResponse response = new BasicHttpResponse(new BasicStatusLine(
+                new ProtocolVersion("HTTP", 1, 1), 200, ""));
+        response.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        if (etag != null) {
+            response.setHeader(HttpHeaders.ETAG, etag);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.exceptions.ExitWithErrorException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+public class ShardMergerTest {
+
+    @TempDir
+    Path parent;
+
+    @Test
+    void shardsShouldBeMergedIntoUsualLayout() throws Exception {
+        Path outputDir = parent.resolve("hackerrank_challenges");
+        Watermark listing = new Watermark(3, 1600000000);
+        writeShard(outputDir, new Shard(1, 2), listing, "a", 1, "print(1)");
+        writeShard(outputDir, new Shard(2, 2), listing, "b", 2, "print(2)");
+        // The same submission written by both shards is kept once
+        writeShard(outputDir, new Shard(2, 2), listing, "a", 1, "print(1)");
+
+        ShardMerger merger = new ShardMerger(outputDir, false, false);
+        merger.merge();
+
+        assertThat(outputDir.resolve("a/accepted_solutions/1.python3")).hasContent("print(1)");
+        assertThat(outputDir.resolve("b/accepted_solutions/2.python3")).hasContent("print(2)");
+        assertThat(merger.getDuplicates()).isEqualTo(1);
+        assertThat(merger.getConflicts()).isZero();
+        assertThat(Watermark.load(outputDir)).isEqualTo(listing);
+        assertThat(Shard.findStagingDirs(outputDir)).isEmpty();
+    }
+
+    @Test
+    void missingShardShouldPreventMerge() throws Exception {
+        Path outputDir = parent.resolve("hackerrank_challenges");
+        writeShard(outputDir, new Shard(1, 3), Watermark.NONE, "a", 1, "print(1)");
+        writeShard(outputDir, new Shard(3, 3), Watermark.NONE, "c", 3, "print(3)");
+        // Started, but not finished
+        Files.createDirectories(new Shard(2, 3).stagingDir(outputDir));
+
+        assertThatExceptionOfType(ExitWithErrorException.class)
+                .isThrownBy(() -> new ShardMerger(outputDir, false, false).merge())
+                .withMessageContaining("did not finish");
+
+        Files.delete(new Shard(2, 3).stagingDir(outputDir));
+        assertThatExceptionOfType(ExitWithErrorException.class)
+                .isThrownBy(() -> new ShardMerger(outputDir, false, false).merge())
+                .withMessageContaining("[2] of 3 are missing");
+        assertThat(outputDir).doesNotExist();
+    }
+
+    /**
+     * Adds a solution to the staging directory of the shard, as a shard run would write it
+     */
+    private static void writeShard(Path outputDir, Shard shard, Watermark listing, String slug, long submissionId,
+                                   String code) throws IOException {
+        Path stagingDir = shard.stagingDir(outputDir);
+        Path solution = stagingDir.resolve(slug).resolve("accepted_solutions").resolve(submissionId + ".python3");
+        Files.createDirectories(solution.getParent());
+        Files.write(solution, code.getBytes(StandardCharsets.UTF_8));
+
+        ShardManifest previous = ShardManifest.load(stagingDir);
+        SubmissionIndex written = previous == null ? new SubmissionIndex() : previous.getWritten();
+        written.add(slug, submissionId);
+        new ShardManifest(shard, listing, written, new SubmissionIndex()).store(stagingDir);
+    }
+}
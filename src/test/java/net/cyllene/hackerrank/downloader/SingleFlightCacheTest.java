@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SingleFlightCacheTest {
+
+    @Test
+    void concurrentCallersShouldShareOneLoad() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(callers.submit(() -> cache.get("slug", () -> {
+                    loads.incrementAndGet();
+                    await(release);
+                    return "details";
+                })));
+            }
+            // Every caller either loads or waits for the load
+            while (cache.getLoads() + cache.getCoalesced() < 4) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("details");
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(loads).hasValue(1);
+        assertThat(cache.getCoalesced()).isEqualTo(3);
+        assertThat(cache.get("slug", () -> "reloaded")).isEqualTo("details");
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void asyncCallersShouldShareOneLoad() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10);
+        CompletableFuture<String> load = new CompletableFuture<>();
+
+        CompletableFuture<String> first = cache.getAsync("slug", () -> load);
+        CompletableFuture<String> second = cache.getAsync("slug", CompletableFuture::new);
+        load.complete("details");
+
+        assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo("details");
+        assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo("details");
+        assertThat(cache.getLoads()).isEqualTo(1);
+        assertThat(cache.getCoalesced()).isEqualTo(1);
+    }
+
+    @Test
+    void leastRecentlyUsedValuesAndFailuresShouldNotBeKept() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(2);
+        cache.get("a", () -> "a");
+        cache.get("b", () -> "b");
+        cache.get("a", () -> "a");
+        cache.get("c", () -> "c");
+
+        assertThat(cache.get("a", () -> "reloaded")).isEqualTo("a");
+        assertThat(cache.get("b", () -> "reloaded")).isEqualTo("reloaded");
+
+        assertThatThrownBy(() -> cache.get("d", () -> {
+            throw new IOException("Not Found");
+        })).isInstanceOf(IOException.class);
+        assertThat(cache.get("d", () -> "d")).isEqualTo("d");
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
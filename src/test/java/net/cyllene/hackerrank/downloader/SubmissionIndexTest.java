@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubmissionIndexTest {
+
+    @Test
+    void challengesShouldBeIteratedInOrderOfFirstAppearance() {
+        SubmissionIndex firstPage = new SubmissionIndex();
+        firstPage.add("b", 9);
+        firstPage.add("a", 8);
+        firstPage.add("b", 7);
+        SubmissionIndex secondPage = new SubmissionIndex();
+        secondPage.add("c", 6);
+        secondPage.add("a", 5);
+
+        SubmissionIndex index = new SubmissionIndex();
+        index.addAll(firstPage);
+        index.addAll(secondPage);
+
+        List<String> slugs = new ArrayList<>();
+        index.forEach((slug, ids) -> slugs.add(slug));
+        assertThat(slugs).containsExactly("b", "a", "c");
+        assertThat(index.getSubmissionIds("a")).containsExactly(8, 5);
+        assertThat(index.getSubmissionIds("missing")).isEmpty();
+        assertThat(index.getSubmissionCount()).isEqualTo(5);
+        assertThat(index.getChallengeCount()).isEqualTo(3);
+    }
+
+    @Test
+    void largeIndexShouldStayCompact() {
+        SubmissionIndex index = new SubmissionIndex();
+        for (int i = 0; i < 65_000; i++) {
+            // The same slug arrives as a new string with every page
+            index.add(new String("challenge-" + i / 10), 100_000_000L - i);
+        }
+
+        assertThat(index.getChallengeCount()).isEqualTo(6_500);
+        assertThat(index.getSubmissionIds("challenge-42")).hasSize(10).startsWith(100_000_000L - 420);
+        // Documented figure is about 26 bytes per submission
+        assertThat(index.getFootprint() / index.getSubmissionCount()).isBetween(16L, 32L);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import net.cyllene.hackerrank.downloader.dto.ChallengeSummary;
+import net.cyllene.hackerrank.downloader.dto.SubmissionSummary;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SubmissionSelectorTest {
+
+    @Test
+    void latestSubmissionShouldBeSelected() {
+        SubmissionSelector selector = new SubmissionSelector(Settings.Selection.LATEST);
+        selector.offer(submission("a", 1, 100, "10"));
+        selector.offer(submission("a", 3, 300, "5"));
+        selector.offer(submission("a", 2, 200, "10"));
+        selector.offer(submission("b", 4, 400, null));
+
+        SubmissionIndex selected = selector.getSelected();
+
+        assertThat(selected.getSubmissionIds("a")).containsExactly(3);
+        assertThat(selected.getSubmissionIds("b")).containsExactly(4);
+        assertThat(selector.getAvoided()).isEqualTo(2);
+    }
+
+    @Test
+    void bestScoreShouldWinOverRecency() {
+        SubmissionSelector selector = new SubmissionSelector(Settings.Selection.BEST_SCORE);
+        selector.offer(submission("a", 1, 100, "10"));
+        selector.offer(submission("a", 3, 300, "5"));
+        // Equal score, the newer one wins
+        selector.offer(submission("a", 2, 200, "10.0"));
+        selector.offer(submission("b", 4, 400, null));
+        selector.offer(submission("b", 5, 500, "0"));
+
+        SubmissionIndex selected = selector.getSelected();
+
+        assertThat(selected.getSubmissionIds("a")).containsExactly(2);
+        assertThat(selected.getSubmissionIds("b")).containsExactly(5);
+        assertThat(selector.getAvoided()).isEqualTo(3);
+    }
+
+    private static SubmissionSummary submission(String slug, long id, long createdAt, String score) {
+        ChallengeSummary challenge = new ChallengeSummary();
+        challenge.setSlug(slug);
+        SubmissionSummary submission = new SubmissionSummary();
+        submission.setId(id);
+        submission.setCreatedAt(createdAt);
+        submission.setScore(score == null ? null : new BigDecimal(score));
+        submission.setChallenge(challenge);
+        return submission;
+    }
+}
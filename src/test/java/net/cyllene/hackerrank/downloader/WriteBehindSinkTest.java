@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class WriteBehindSinkTest {
+
+    @TempDir
+    Path outputDir;
+
+    @Test
+    void queuedFilesShouldBeWrittenBeforeClose() throws Exception {
+        WriteBehindSink sink = new WriteBehindSink(new DirectorySink(outputDir, null, true, false), 4);
+        for (int i = 0; i < 100; i++) {
+            sink.write(Paths.get("challenge-" + i % 3, "accepted_solutions", i + ".java"),
+                    ("class A" + i + " {}").getBytes(StandardCharsets.UTF_8));
+        }
+        sink.close();
+
+        assertThat(Files.readAllBytes(outputDir.resolve("challenge-1/accepted_solutions/97.java")))
+                .isEqualTo("class A97 {}".getBytes(StandardCharsets.UTF_8));
+        try (Stream<Path> files = Files.walk(outputDir)) {
+            assertThat(files.filter(Files::isRegularFile).count()).isEqualTo(100);
+        }
+        assertThat(sink.toString()).contains("100 files");
+    }
+
+    @Test
+    void largeStreamedFileShouldNotBeHeldInMemory() throws Exception {
+        byte[] chunk = new byte[4096];
+        Arrays.fill(chunk, (byte) 'x');
+        int chunks = 256;
+        AtomicInteger largestWrite = new AtomicInteger();
+        List<Path> collected = new ArrayList<>();
+        OutputSink delegate = new OutputSink() {
+            @Override
+            public void write(Path path, byte[] content) {
+                collected.add(path);
+            }
+
+            @Override
+            public void stream(Path path, Content content) throws IOException {
+                content.writeTo(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                        largestWrite.accumulateAndGet(len, Math::max);
+                    }
+                });
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        WriteBehindSink sink = new WriteBehindSink(delegate, 4);
+        sink.stream(Paths.get("a", "accepted_solutions", "1.java"), out -> {
+            for (int i = 0; i < chunks; i++) {
+                out.write(chunk);
+            }
+        });
+        sink.close();
+
+        // A megabyte of code reaches the underlying sink in pieces, never as a whole array
+        assertThat(collected).isEmpty();
+        assertThat(largestWrite.get()).isPositive().isLessThanOrEqualTo(WriteBehindSink.DEFAULT_SPILL_THRESHOLD);
+    }
+
+    @Test
+    void streamedFilesShouldBeWrittenWhetherSpilledOrNot() throws Exception {
+        WriteBehindSink sink = new WriteBehindSink(new DirectorySink(outputDir, null, false, false), 4, 16);
+        sink.stream(Paths.get("a", "accepted_solutions", "1.java"),
+                out -> out.write("class A {}".getBytes(StandardCharsets.UTF_8)));
+        sink.stream(Paths.get("a", "accepted_solutions", "2.java"), out -> {
+            for (int i = 0; i < 10; i++) {
+                out.write(("class B" + i + " {}\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        sink.close();
+
+        assertThat(outputDir.resolve("a/accepted_solutions/1.java")).hasContent("class A {}");
+        assertThat(outputDir.resolve("a/accepted_solutions/2.java")).hasContent(IntStream.range(0, 10)
+                .mapToObj(i -> "class B" + i + " {}").collect(Collectors.joining("\n")));
+    }
+
+    @Test
+    void writerFailureShouldBeReported() throws Exception {
+        OutputSink failing = mock(OutputSink.class);
+        doThrow(new IOException("disk full")).when(failing).write(any(), any());
+
+        WriteBehindSink sink = new WriteBehindSink(failing, 1);
+        for (int i = 0; i < 10; i++) {
+            try {
+                sink.write(Paths.get(i + ".java"), new byte[0]);
+            } catch (IOException e) {
+                // Reported either here or on close
+            }
+        }
+
+        assertThatExceptionOfType(IOException.class).isThrownBy(sink::close)
+                .withMessageContaining("disk full");
+        verify(failing).close();
+    }
+}
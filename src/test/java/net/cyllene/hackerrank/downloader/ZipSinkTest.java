@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZipSinkTest {
+
+    @TempDir
+    Path outputDir;
+
+    @Test
+    void filesShouldBeStoredWithDirectoryLayout() throws Exception {
+        Path archive = outputDir.resolve("hackerrank_challenges.zip");
+        ZipSink sink = new ZipSink(archive, false, false);
+        sink.write(Paths.get("mini-max-sum", "problem_description", "english.html"),
+                "<html></html>".getBytes(StandardCharsets.UTF_8));
+        sink.write(Paths.get("mini-max-sum", "accepted_solutions", "1.java"),
+                "class A {}".getBytes(StandardCharsets.UTF_8));
+        sink.close();
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertThat(Collections.list(zip.entries()).stream().map(ZipEntry::getName).collect(Collectors.toList()))
+                    .containsExactly("mini-max-sum/problem_description/english.html",
+                            "mini-max-sum/accepted_solutions/1.java");
+            ZipEntry solution = zip.getEntry("mini-max-sum/accepted_solutions/1.java");
+            assertThat(new String(readAll(zip, solution), StandardCharsets.UTF_8)).isEqualTo("class A {}");
+        }
+        assertThat(sink.toString()).contains("2 entries").contains("1 files and 3 directories");
+    }
+
+    @Test
+    void duplicateFilesShouldBeSkipped() throws Exception {
+        Path archive = outputDir.resolve("hackerrank_challenges.zip");
+        ZipSink sink = new ZipSink(archive, false, false);
+        Path path = Paths.get("mini-max-sum", "problem_description", "english.html");
+        sink.write(path, "<html></html>".getBytes(StandardCharsets.UTF_8));
+        sink.write(path, "<html></html>".getBytes(StandardCharsets.UTF_8));
+        AtomicBoolean produced = new AtomicBoolean();
+        sink.stream(path, out -> produced.set(true));
+        sink.close();
+
+        assertThat(produced).isTrue();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            assertThat(zip.size()).isEqualTo(1);
+        }
+        assertThat(sink.toString()).contains("1 entries").contains("skipped 2 duplicates");
+    }
+
+    @Test
+    void streamedFilesShouldBeWrittenIntoEntries() throws Exception {
+        Path archive = outputDir.resolve("hackerrank_challenges.zip");
+        ZipSink sink = new ZipSink(archive, false, false);
+        sink.stream(Paths.get("mini-max-sum", "accepted_solutions", "1.java"), out -> {
+            out.write("class A ".getBytes(StandardCharsets.UTF_8));
+            out.write('{');
+            out.write("}".getBytes(StandardCharsets.UTF_8));
+            out.close();
+        });
+        sink.write(Paths.get("mini-max-sum", "accepted_solutions", "2.java"),
+                "class B {}".getBytes(StandardCharsets.UTF_8));
+        sink.close();
+
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            ZipEntry first = zip.getEntry("mini-max-sum/accepted_solutions/1.java");
+            assertThat(new String(readAll(zip, first), StandardCharsets.UTF_8)).isEqualTo("class A {}");
+            ZipEntry second = zip.getEntry("mini-max-sum/accepted_solutions/2.java");
+            assertThat(new String(readAll(zip, second), StandardCharsets.UTF_8)).isEqualTo("class B {}");
+        }
+        assertThat(sink.toString()).contains("2 entries, 0 KB");
+    }
+
+    private static byte[] readAll(ZipFile zip, ZipEntry entry) throws Exception {
+        byte[] content = new byte[(int) entry.getSize()];
+        try (DataInputStream in = new DataInputStream(zip.getInputStream(entry))) {
+            in.readFully(content);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016-2020 Mikhail Antonov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.cyllene.hackerrank.downloader.events;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class EventsTest {
+
+    @TempDir
+    Path outputDir;
+
+    @Test
+    void eventsShouldBeRecorded() throws Exception {
+        assumeTrue(Events.isAvailable());
+        Path destination = outputDir.resolve("run.jfr");
+
+        Closeable recording = Events.startRecording(destination);
+        Events.commitRequest(Events.beginRequest(), "challenge", "https://example.com/challenges/a", 200, 42);
+        Events.commitDecode(Events.beginDecode(), "challenge", "/challenges/a", true, 42);
+        Events.commitWrite(Events.beginWrite(), "a/problem_description/english.html", "files", 42);
+        recording.close();
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(destination);
+        RecordedEvent request = events.stream()
+                .filter(event -> event.getEventType().getName().equals("net.cyllene.hackerrank.HttpRequest"))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertThat(request.getString("type")).isEqualTo("challenge");
+        assertThat(request.getInt("status")).isEqualTo(200);
+        assertThat(events).extracting(event -> event.getEventType().getName())
+                .contains("net.cyllene.hackerrank.JsonDecode", "net.cyllene.hackerrank.FileWrite");
+    }
+}